@@ -0,0 +1,67 @@
+package org.example.benchmarks;
+
+import org.example.CkQST;
+import org.example.CkQSTConfig;
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.models.CkQuery;
+import org.example.structures.WindowedIQuadTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CkQSTBenchmark {
+    private static final int WINDOW = 1 << 14;
+    private static final int QUERIES = 1 << 12;
+
+    @Param({"0.0", "1.0"})
+    public double skew;
+
+    @Param({"1", "3"})
+    public int keywordsPerQuery;
+
+    @Param({"1", "10"})
+    public int k;
+
+    @Param({"6", "9"})
+    public int maxHeight;
+
+    @Param({"5", "20"})
+    public int maxLeafCapacity;
+
+    private DataObject[] objects;
+    private CkQST index;
+    private int next;
+
+    /**
+     * Fill a count based window, so every measured insert also evicts and the index stays in a steady state. The
+     * stream cycles over twice the window, an object is long evicted when it comes again.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = new Workload(42, 1000, skew);
+        objects = workload.objects(2 * WINDOW, 5);
+        CkQuery[] queries = workload.queries(QUERIES, keywordsPerQuery, k);
+
+        CkQSTConfig config = new CkQSTConfig(Workload.RANGE, Workload.RANGE, maxHeight)
+                .withMaxLeafCapacity(maxLeafCapacity);
+        index = new CkQST(config, WindowedIQuadTree.WindowType.COUNT, WINDOW, 8);
+        for (int i = 0; i < WINDOW; i++)
+            index.preloadObject(objects[i]);
+        for (CkQuery query : queries)
+            index.insertQuery(query);
+        next = WINDOW;
+    }
+
+    @Benchmark
+    public Collection<Query> insertObject() {
+        return index.insertObject(objects[next++ & (2 * WINDOW - 1)]);
+    }
+}
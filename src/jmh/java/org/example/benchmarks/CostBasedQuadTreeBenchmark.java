@@ -0,0 +1,93 @@
+package org.example.benchmarks;
+
+import org.example.CkQSTConfig;
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.models.CkQuery;
+import org.example.structures.CostBasedQuadTree;
+import org.example.structures.IQuadTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CostBasedQuadTreeBenchmark {
+    private static final int OBJECTS = 1 << 14;
+    private static final int QUERIES = 1 << 12;
+    private static final int BATCH = 256;
+
+    @Param({"0.0", "1.0"})
+    public double skew;
+
+    @Param({"1", "3", "5"})
+    public int keywordsPerQuery;
+
+    @Param({"1", "10"})
+    public int k;
+
+    @Param({"6", "9"})
+    public int maxHeight;
+
+    private DataObject[] objects;
+    private CkQuery[] queries;
+    private CostBasedQuadTree tree;
+    private List<DataObject> batch;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = new Workload(42, 1000, skew);
+        objects = workload.objects(OBJECTS, 5);
+        queries = workload.queries(QUERIES, keywordsPerQuery, k);
+
+        // Search ranges from the kNN of the queries, which decide where they are placed
+        IQuadTree objectIndex = new IQuadTree(0, 0, Workload.RANGE, Workload.RANGE, CkQSTConfig.DEFAULT_MAX_LEAF_CAPACITY,
+                maxHeight);
+        for (DataObject object : objects)
+            objectIndex.insert(object);
+        for (CkQuery query : queries)
+            query.setResults(objectIndex.search(query));
+
+        tree = build();
+        batch = Arrays.asList(Arrays.copyOf(objects, BATCH));
+    }
+
+    private CostBasedQuadTree build() {
+        CostBasedQuadTree fresh = new CostBasedQuadTree(0, 0, Workload.RANGE, Workload.RANGE, maxHeight);
+        for (CkQuery query : queries)
+            fresh.insert(query);
+        return fresh;
+    }
+
+    /**
+     * Build a tree from scratch, the cost is reported per inserted query.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public CostBasedQuadTree insert() {
+        return build();
+    }
+
+    @Benchmark
+    public Collection<Query> search() {
+        return tree.search(objects[next++ & (OBJECTS - 1)]);
+    }
+
+    /**
+     * Match a batch in one descent, the cost is reported per object.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Map<Query, List<DataObject>> searchBatch() {
+        return tree.search(batch);
+    }
+}
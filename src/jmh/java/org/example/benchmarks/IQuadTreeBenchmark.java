@@ -0,0 +1,71 @@
+package org.example.benchmarks;
+
+import org.example.base.DataObject;
+import org.example.models.CkQuery;
+import org.example.structures.IQuadTree;
+import org.example.structures.SearchContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IQuadTreeBenchmark {
+    private static final int OBJECTS = 1 << 14;
+    private static final int QUERIES = 1 << 10;
+
+    @Param({"0.0", "1.0"})
+    public double skew;
+
+    @Param({"1", "3"})
+    public int keywordsPerQuery;
+
+    @Param({"1", "10", "50"})
+    public int k;
+
+    @Param({"6", "9"})
+    public int maxHeight;
+
+    @Param({"5", "20"})
+    public int maxLeafCapacity;
+
+    private DataObject[] objects;
+    private CkQuery[] queries;
+    private IQuadTree tree;
+    private final SearchContext context = new SearchContext();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = new Workload(42, 1000, skew);
+        objects = workload.objects(OBJECTS, 5);
+        queries = workload.queries(QUERIES, keywordsPerQuery, k);
+        tree = build();
+    }
+
+    private IQuadTree build() {
+        IQuadTree fresh = new IQuadTree(0, 0, Workload.RANGE, Workload.RANGE, maxLeafCapacity, maxHeight);
+        for (DataObject object : objects)
+            fresh.insert(object);
+        return fresh;
+    }
+
+    /**
+     * Build a tree from scratch, the cost is reported per inserted object.
+     */
+    @Benchmark
+    @OperationsPerInvocation(OBJECTS)
+    public IQuadTree insert() {
+        return build();
+    }
+
+    @Benchmark
+    public int search() {
+        tree.search(queries[next++ & (QUERIES - 1)], context);
+        return context.size();
+    }
+}
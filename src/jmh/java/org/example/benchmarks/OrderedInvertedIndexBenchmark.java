@@ -0,0 +1,63 @@
+package org.example.benchmarks;
+
+import org.example.base.DataObject;
+import org.example.models.CkQuery;
+import org.example.structures.MatchBuffer;
+import org.example.structures.OrderedInvertedIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderedInvertedIndexBenchmark {
+    private static final int QUERIES = 1 << 14;
+    private static final int OBJECTS = 1 << 12;
+
+    @Param({"0.0", "1.0"})
+    public double skew;
+
+    @Param({"1", "3", "5"})
+    public int keywordsPerQuery;
+
+    private CkQuery[] queries;
+    private DataObject[] objects;
+    private OrderedInvertedIndex index;
+    private final MatchBuffer results = new MatchBuffer();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Workload workload = new Workload(42, 1000, skew);
+        queries = workload.queries(QUERIES, keywordsPerQuery, 10);
+        objects = workload.objects(OBJECTS, 5);
+
+        index = new OrderedInvertedIndex();
+        for (CkQuery query : queries)
+            index.insertQueryPL(query);
+    }
+
+    /**
+     * Build an index from scratch, the cost is reported per inserted query.
+     */
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public OrderedInvertedIndex insertQueryPL() {
+        OrderedInvertedIndex fresh = new OrderedInvertedIndex();
+        for (CkQuery query : queries)
+            fresh.insertQueryPL(query);
+        return fresh;
+    }
+
+    @Benchmark
+    public void searchObject(Blackhole bh) {
+        results.clear();
+        index.searchObject(objects[next++ & (OBJECTS - 1)], results);
+        bh.consume(results);
+    }
+}
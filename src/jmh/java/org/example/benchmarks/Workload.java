@@ -0,0 +1,68 @@
+package org.example.benchmarks;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.helpers.TermDictionary;
+import org.example.models.CkQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic objects and queries of the benchmarks, uniformly located, with keywords drawn from a Zipf distribution over
+ * the vocabulary. A skew of 0 draws the keywords uniformly.
+ */
+public class Workload {
+    public static final int RANGE = 1000;
+
+    private final Random random;
+    private final double[] cumulative;
+    private final TermDictionary dictionary = new TermDictionary();
+
+    public Workload(long seed, int vocabulary, double skew) {
+        this.random = new Random(seed);
+        this.cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+    }
+
+    public DataObject[] objects(int count, int keywordsPerObject) {
+        DataObject[] objects = new DataObject[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = new DataObject(i, new Point(random.nextDouble() * RANGE, random.nextDouble() * RANGE),
+                    keywords(keywordsPerObject), i, Long.MAX_VALUE);
+            dictionary.intern(objects[i]);
+        }
+        return objects;
+    }
+
+    public CkQuery[] queries(int count, int keywordsPerQuery, int k) {
+        CkQuery[] queries = new CkQuery[count];
+        for (int i = 0; i < count; i++) {
+            queries[i] = new CkQuery(i, keywords(keywordsPerQuery), random.nextDouble() * RANGE,
+                    random.nextDouble() * RANGE, k, 0, Long.MAX_VALUE);
+            dictionary.intern(queries[i]);
+        }
+        return queries;
+    }
+
+    private List<String> keywords(int count) {
+        List<String> keywords = new ArrayList<>(count);
+        while (keywords.size() < Math.min(count, cumulative.length)) {
+            String keyword = "k" + nextTerm();
+            if (!keywords.contains(keyword))
+                keywords.add(keyword);
+        }
+        return keywords;
+    }
+
+    private int nextTerm() {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return i >= 0 ? i : -i - 1;
+    }
+}
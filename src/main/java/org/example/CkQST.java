@@ -2,86 +2,449 @@ package org.example;
 
 import org.example.base.DataObject;
 import org.example.base.Query;
-import org.example.helpers.SpatialHelper;
+import org.example.helpers.TermDictionary;
+import org.example.metrics.IndexMetrics;
 import org.example.models.CkQuery;
 import org.example.structures.CostBasedQuadTree;
-import org.example.structures.IQuadTree;
+import org.example.structures.HeapObjectStore;
+import org.example.structures.IndexSnapshot;
+import org.example.structures.MatchBuffer;
+import org.example.structures.ObjectStore;
+import org.example.structures.OffHeapArena;
+import org.example.structures.OffHeapObjectStore;
+import org.example.structures.QueryLog;
+import org.example.structures.SearchContext;
+import org.example.structures.WindowedIQuadTree;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.PriorityQueue;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Reproduction of CkQST
  */
 public class CkQST implements SpatialKeywordIndex<Query, DataObject> {
-    public static int xRange = 10;
-    public static int yRange = 10;
-    public static int maxHeight = 9;
-    public static int maxLeafCapacity = 5;
-
-    public static double thetaU;
-    private final IQuadTree objectIndex;
-    private final CostBasedQuadTree queryIndex;
+    protected final CkQSTConfig config;
+    protected final WindowedIQuadTree objectIndex;
+    protected final CostBasedQuadTree queryIndex;
+    protected final TermDictionary dictionary;
+    private final SearchContext searchContext = new SearchContext();
+    // Queries matched by an expired object, reused by every repair
+    private final MatchBuffer repairMatches = new MatchBuffer();
+    private QueryLog queryLog;
+    // Queries whose search range shrank enough since they were placed, waiting to be placed again
+    private final Set<CkQuery> shrunk = new LinkedHashSet<>();
+    private double relocationCredit;
     private int timestamp = 0;
 
     public CkQST() {
-        objectIndex = new IQuadTree(0, 0, xRange, yRange, maxLeafCapacity, maxHeight);
-        queryIndex = new CostBasedQuadTree(0, 0, xRange, yRange, maxHeight);
-        thetaU = 0.5;
+        this(new CkQSTConfig(10, 10, 9));
     }
 
     public CkQST(int xRange, int yRange, int maxHeight) {
-        CkQST.xRange = xRange;
-        CkQST.yRange = yRange;
-        CkQST.maxHeight = maxHeight;
-        objectIndex = new IQuadTree(0, 0, xRange, yRange, maxLeafCapacity, maxHeight);
-        queryIndex = new CostBasedQuadTree(0, 0, xRange, yRange, maxHeight);
-        thetaU = 0.5;
+        this(xRange, yRange, maxHeight, WindowedIQuadTree.WindowType.UNBOUNDED, Long.MAX_VALUE, 1);
+    }
+
+    /**
+     * CkQST over a sliding window of objects.
+     *
+     * @param windowType Count or time based window.
+     * @param windowSize Number of objects or time units (of DataObject.st) kept in the window.
+     * @param numSlices  Number of slices the window is split into, i.e. the eviction granularity.
+     */
+    public CkQST(int xRange, int yRange, int maxHeight, WindowedIQuadTree.WindowType windowType, long windowSize,
+                 int numSlices) {
+        this(new CkQSTConfig(xRange, yRange, maxHeight), windowType, windowSize, numSlices);
+    }
+
+    /**
+     * CkQST over a sliding window of the objects of a part of the space, e.g. a shard.
+     *
+     * @param x      Min x of the indexed space.
+     * @param y      Min y of the indexed space.
+     * @param width  Width of the indexed space.
+     * @param height Height of the indexed space.
+     */
+    public CkQST(double x, double y, double width, double height, int maxHeight,
+                 WindowedIQuadTree.WindowType windowType, long windowSize, int numSlices) {
+        this(new CkQSTConfig(x, y, width, height, maxHeight), windowType, windowSize, numSlices);
+    }
+
+    public CkQST(CkQSTConfig config) {
+        this(config, WindowedIQuadTree.WindowType.UNBOUNDED, Long.MAX_VALUE, 1);
+    }
+
+    public CkQST(CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize, int numSlices) {
+        this(config, windowType, windowSize, numSlices, new TermDictionary());
+    }
+
+    /**
+     * CkQST interning the keywords in the given dictionary, which may be shared with the source of the stream.
+     *
+     * @param config     Configuration of the indexes.
+     * @param dictionary Dictionary of the term IDs.
+     */
+    public CkQST(CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize, int numSlices,
+                 TermDictionary dictionary) {
+        this.config = config;
+        this.dictionary = dictionary;
+        Supplier<ObjectStore> stores = HeapObjectStore::new;
+        if (config.offHeap) {
+            OffHeapArena arena = new OffHeapArena();
+            stores = () -> new OffHeapObjectStore(arena, dictionary);
+        }
+        objectIndex = new WindowedIQuadTree(config.x, config.y, config.width, config.height, config.maxLeafCapacity,
+                config.maxHeight, windowType, windowSize, numSlices, stores);
+        queryIndex = new CostBasedQuadTree(config);
+    }
+
+    public CkQSTConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Dictionary of the term IDs of the objects and queries. Objects and queries whose terms are already set must
+     * have been interned in it.
+     */
+    public TermDictionary getDictionary() {
+        return dictionary;
     }
 
     @Override
     public void preloadObject(DataObject object) {
+        dictionary.intern(object);
         objectIndex.insert(object);
+        repair(objectIndex.evict());
     }
 
     @Override
     public Collection<DataObject> insertQuery(Query query) {
         timestamp++;
         if (query.getClass() == CkQuery.class) {
-            PriorityQueue<DataObject> objResults = (PriorityQueue<DataObject>) objectIndex.search(query);
-
-            if (objResults.size() >= ((CkQuery) query).k) {
-                DataObject o = objResults.peek();
-                assert o != null;
-                ((CkQuery) query).sr = SpatialHelper.getDistanceInBetween(((CkQuery) query).location, o.location);
-            }
-
+            dictionary.intern(query);
+            queryIndex.expire(query.st);
+            if (queryIndex.contains(query))
+                throw new IllegalArgumentException("Query " + query.id + " is already registered!");
+            refresh((CkQuery) query, searchContext);
             queryIndex.insert(query);
+            ((CkQuery) query).placedSr = ((CkQuery) query).sr;
+            if (queryLog != null)
+                log(() -> queryLog.logInsert((CkQuery) query));
+            return ((CkQuery) query).getResults();
         } else
             throw new RuntimeException("CkQST only support KNNQueries!");
-        return null;
+    }
+
+    @Override
+    public boolean removeQuery(Query query) {
+        dictionary.intern(query);
+        if (!queryIndex.remove(query))
+            return false;
+        shrunk.remove(query);
+        if (queryLog != null)
+            log(() -> queryLog.logRemove(query.id));
+        return true;
     }
 
     @Override
     public Collection<Query> insertObject(DataObject dataObject) {
         timestamp++;
+        dictionary.intern(dataObject);
+        queryIndex.expire(dataObject.st);
 
         objectIndex.insert(dataObject);
+
+        // The matched queries hold the object in their range, so it only has to be merged into their own top-k
         Collection<Query> queryResults = queryIndex.search(dataObject);
         for (Query query : queryResults) {
             if (query instanceof CkQuery) {
-                PriorityQueue<DataObject> objResults = (PriorityQueue<DataObject>) objectIndex.search(query);
-
-                if (objResults.size() >= ((CkQuery) query).k) {
-                    DataObject o = objResults.peek();
-                    assert o != null;
-                    ((CkQuery) query).sr = SpatialHelper.getDistanceInBetween(((CkQuery) query).location, o.location);
-                }
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.queryOffered();
+                ((CkQuery) query).offer(dataObject);
             }
         }
+
+        repair(objectIndex.evict());
+        relocateShrunk(queryResults, 1);
+        return queryResults;
+    }
+
+    /**
+     * Insert a micro-batch of objects. The batch is matched with the query index in a single descent and each matched
+     * query merges all its matched objects of the batch at once, then the window is repaired once for the batch.
+     *
+     * @param dataObjects Batch of objects, in arrival order.
+     * @return Queries matched by any object of the batch.
+     */
+    @Override
+    public Collection<Query> insertObjects(List<DataObject> dataObjects) {
+        if (dataObjects.isEmpty())
+            return Collections.emptyList();
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (DataObject dataObject : dataObjects) {
+            dictionary.intern(dataObject);
+            first = Math.min(first, dataObject.st);
+            last = Math.max(last, dataObject.st);
+        }
+        queryIndex.expire(first);
+
+        for (DataObject dataObject : dataObjects) {
+            timestamp++;
+            objectIndex.insert(dataObject);
+        }
+
+        Collection<Query> queryResults = match(dataObjects);
+
+        repair(objectIndex.evict());
+        relocateShrunk(queryResults, dataObjects.size());
+        queryIndex.expire(last);
         return queryResults;
     }
 
+    /**
+     * Match a batch of objects already inserted into the window with the query index, and merge the matched objects
+     * into the top-k of the queries.
+     *
+     * @param dataObjects Batch of objects, in arrival order.
+     * @return Queries matched by any object of the batch.
+     */
+    protected Collection<Query> match(List<DataObject> dataObjects) {
+        Map<Query, List<DataObject>> matches = queryIndex.search(dataObjects);
+        for (Map.Entry<Query, List<DataObject>> entry : matches.entrySet()) {
+            if (entry.getKey() instanceof CkQuery)
+                offer((CkQuery) entry.getKey(), entry.getValue());
+        }
+        return matches.keySet();
+    }
+
+    /**
+     * Merge matched objects into the top-k of a query.
+     *
+     * @param query       Matched query.
+     * @param dataObjects Objects matched by the query.
+     */
+    protected static void offer(CkQuery query, List<DataObject> dataObjects) {
+        for (DataObject dataObject : dataObjects) {
+            // The query may have expired before the later objects of the batch arrived
+            if (query.et >= dataObject.st) {
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.queryOffered();
+                query.offer(dataObject);
+            }
+        }
+    }
+
+    /**
+     * Move the time forward without inserting an object, expiring the queries and the objects of a time based window
+     * which fall out of it.
+     *
+     * @param now Current time.
+     */
+    public void advanceTime(long now) {
+        queryIndex.expire(now);
+        repair(objectIndex.evict(now));
+    }
+
+    /**
+     * Re-evaluate the queries whose top-k contained one of the expired objects. Such a query must have had the object
+     * inside its search range, so matching the expired objects against the query index finds all of them.
+     *
+     * @param expired Objects evicted from the window.
+     * @return Queries which have been re-evaluated.
+     */
+    protected Collection<CkQuery> repair(Collection<DataObject> expired) {
+        if (expired.isEmpty())
+            return Collections.emptyList();
+
+        Set<CkQuery> matched = new LinkedHashSet<>();
+        for (DataObject object : expired) {
+            // Clears the buffer by moving it to the next epoch
+            queryIndex.search(object, false, repairMatches);
+            for (int i = 0; i < repairMatches.size(); i++) {
+                Query query = repairMatches.get(i);
+                if (query instanceof CkQuery && ((CkQuery) query).inResults(object))
+                    matched.add((CkQuery) query);
+            }
+        }
+
+        List<CkQuery> affected = new ArrayList<>(matched);
+        double[] ranges = new double[affected.size()];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = affected.get(i).sr;
+            if (IndexMetrics.ENABLED)
+                IndexMetrics.queryReevaluated();
+        }
+        refresh(affected);
+        for (int i = 0; i < ranges.length; i++) {
+            CkQuery q = affected.get(i);
+            // A grown range may no longer fit the node the query was placed in
+            if (q.sr > ranges[i] && queryIndex.relocate(q))
+                q.placedSr = q.sr;
+        }
+        return affected;
+    }
+
+    /**
+     * Recompute the top-k of the queries affected by a window repair.
+     *
+     * @param queries Queries to be refreshed.
+     */
+    protected void refresh(List<CkQuery> queries) {
+        for (CkQuery query : queries)
+            refresh(query, searchContext);
+    }
+
+    /**
+     * Queue the matched queries whose search range shrank enough since they were placed, so they move down to the
+     * smaller node now holding their range, then place queued queries again. Each streamed object earns
+     * relocationsPerObject placements, so the cost of the re-placement is spread over the stream.
+     *
+     * @param matched    Queries matched by the objects.
+     * @param numObjects Number of streamed objects.
+     */
+    protected void relocateShrunk(Collection<Query> matched, int numObjects) {
+        for (Query query : matched) {
+            if (query instanceof CkQuery && ((CkQuery) query).sr < ((CkQuery) query).placedSr * config.relocationRatio)
+                shrunk.add((CkQuery) query);
+        }
+
+        relocationCredit += numObjects * config.relocationsPerObject;
+        Iterator<CkQuery> it = shrunk.iterator();
+        while (relocationCredit >= 1 && it.hasNext()) {
+            CkQuery query = it.next();
+            it.remove();
+            relocationCredit--;
+            // Expired queries are no longer in the index
+            if (queryIndex.relocate(query))
+                query.placedSr = query.sr;
+        }
+        // Credit is not saved up while there is nothing to place
+        if (shrunk.isEmpty())
+            relocationCredit = Math.min(relocationCredit, 1);
+    }
+
+    /**
+     * Recompute the top-k of the query with a kNN search over the window, using the scratch space of the context.
+     *
+     * @param query Query to be refreshed.
+     * @param ctx   Search context, which must not be shared by threads.
+     */
+    protected void refresh(CkQuery query, SearchContext ctx) {
+        objectIndex.search(query, ctx);
+        query.clearResults();
+        for (int i = 0; i < ctx.size(); i++)
+            query.offer(ctx.get(i), ctx.distSqr(i));
+    }
+
+    /**
+     * Write a snapshot of the object and query indexes. The operations it includes are then dropped from the query
+     * log, if any.
+     *
+     * @param path Snapshot file to write.
+     */
+    public void snapshot(Path path) throws IOException {
+        long lsn = queryLog == null ? 0 : queryLog.lastLsn();
+        IndexSnapshot.write(path, lsn, dictionary, objectIndex, queryIndex);
+        if (queryLog != null)
+            queryLog.truncate(lsn);
+    }
+
+    /**
+     * Restore the object and query indexes of an empty CkQST, configured like the snapshotted one, from a snapshot.
+     *
+     * @param path Snapshot file to read.
+     * @return Restored queries, with their top-k and search range.
+     */
+    public List<CkQuery> restore(Path path) throws IOException {
+        return IndexSnapshot.read(path, dictionary, objectIndex, queryIndex);
+    }
+
+    /**
+     * Log the query registrations and removals from now on. The operations are durable once the log has synced them,
+     * i.e. within its sync interval, or after {@link QueryLog#sync()}.
+     *
+     * @param queryLog Query log, or null to stop logging.
+     */
+    public void logQueries(QueryLog queryLog) {
+        this.queryLog = queryLog;
+    }
+
+    /**
+     * Recover an empty CkQST after a crash: restore the last snapshot, if any, then replay the query operations logged
+     * after it. The operations are coalesced before being applied, so a query registered then removed is never
+     * evaluated, and the surviving registrations are inserted in log order. The query operations are logged into the
+     * log from then on.
+     *
+     * @param snapshot Snapshot file, which may not exist.
+     * @param queryLog Query log of the operations since the snapshot.
+     * @return Live queries.
+     */
+    public List<CkQuery> recover(Path snapshot, QueryLog queryLog) throws IOException {
+        Map<Integer, CkQuery> restored = new HashMap<>();
+        long lsn = 0;
+        if (Files.exists(snapshot)) {
+            lsn = IndexSnapshot.readLsn(snapshot);
+            for (CkQuery query : restore(snapshot))
+                restored.put(query.id, query);
+        }
+
+        // A removal cancels the registration it follows, or removes a restored query
+        Map<Integer, CkQuery> registered = new LinkedHashMap<>();
+        queryLog.replay(lsn, new QueryLog.Visitor() {
+            @Override
+            public void insert(long lsn, CkQuery query) {
+                registered.put(query.id, query);
+            }
+
+            @Override
+            public void remove(long lsn, int queryId) {
+                if (registered.remove(queryId) != null)
+                    return;
+                CkQuery query = restored.remove(queryId);
+                if (query != null)
+                    queryIndex.remove(query);
+            }
+        });
+
+        // The log is behind the snapshot if it lost the records the snapshot holds, e.g. when it was replaced
+        queryLog.advanceTo(lsn);
+        this.queryLog = null;
+        List<CkQuery> queries = new ArrayList<>(restored.values());
+        for (CkQuery query : registered.values()) {
+            insertQuery(query);
+            queries.add(query);
+        }
+        this.queryLog = queryLog;
+        return queries;
+    }
+
+    private static void log(LogOperation operation) {
+        try {
+            operation.append();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface LogOperation {
+        void append() throws IOException;
+    }
+
     public void printIndex() {
         System.out.println(queryIndex);
     }
@@ -0,0 +1,127 @@
+package org.example;
+
+/**
+ * Immutable configuration of a CkQST engine: the indexed space, the shape of its trees and the tuning of the query
+ * placement. Every index of an engine reads its own configuration, so engines configured differently can run side by
+ * side in one JVM.
+ */
+public final class CkQSTConfig {
+    public static final int DEFAULT_MAX_LEAF_CAPACITY = 5;
+    public static final double DEFAULT_THETA_U = 0.5;
+    public static final double DEFAULT_ARRIVAL_HALF_LIFE = 1 << 16;
+    public static final double DEFAULT_RELOCATION_RATIO = 0.5;
+    public static final double DEFAULT_RELOCATIONS_PER_OBJECT = 0.25;
+
+    public final double x;
+    public final double y;
+    public final double width;
+    public final double height;
+    public final int maxHeight;
+    public final int maxLeafCapacity;
+    // Weight of the update cost against the verification cost when placing a query
+    public final double thetaU;
+    // Number of streamed objects after which an object counts half in the arrival rates of the query index nodes
+    public final double arrivalHalfLife;
+    // A query is placed again once its search range shrank to this fraction of the one it was placed with
+    public final double relocationRatio;
+    // Queries placed again per streamed object, so the re-placement never holds ingestion up for long
+    public final double relocationsPerObject;
+    // Whether the objects of the window are kept in direct memory instead of the heap. The leaves of the keyword trees
+    // then read the object locations from direct memory instead of copying them, which keeps the heap small at the cost
+    // of a slower kNN search
+    public final boolean offHeap;
+
+    public CkQSTConfig(double width, double height, int maxHeight) {
+        this(0, 0, width, height, maxHeight);
+    }
+
+    public CkQSTConfig(double x, double y, double width, double height, int maxHeight) {
+        this(x, y, width, height, maxHeight, DEFAULT_MAX_LEAF_CAPACITY, DEFAULT_THETA_U, DEFAULT_ARRIVAL_HALF_LIFE,
+                DEFAULT_RELOCATION_RATIO, DEFAULT_RELOCATIONS_PER_OBJECT, false);
+    }
+
+    public CkQSTConfig(double x, double y, double width, double height, int maxHeight, int maxLeafCapacity,
+                       double thetaU, double arrivalHalfLife, double relocationRatio, double relocationsPerObject,
+                       boolean offHeap) {
+        if (!(width > 0) || !(height > 0))
+            throw new IllegalArgumentException("Indexed space must have a positive width and height!");
+        if (maxHeight < 1 || maxHeight > 31)
+            throw new IllegalArgumentException("Max tree height must be between 1 and 31!");
+        if (maxLeafCapacity <= 0)
+            throw new IllegalArgumentException("Leaf capacity must be positive!");
+        if (thetaU < 0)
+            throw new IllegalArgumentException("Update cost weight must not be negative!");
+        if (!(arrivalHalfLife > 0))
+            throw new IllegalArgumentException("Arrival half-life must be positive!");
+        if (relocationRatio < 0 || relocationRatio > 1)
+            throw new IllegalArgumentException("Relocation ratio must be between 0 and 1!");
+        if (relocationsPerObject < 0)
+            throw new IllegalArgumentException("Relocations per object must not be negative!");
+
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.maxHeight = maxHeight;
+        this.maxLeafCapacity = maxLeafCapacity;
+        this.thetaU = thetaU;
+        this.arrivalHalfLife = arrivalHalfLife;
+        this.relocationRatio = relocationRatio;
+        this.relocationsPerObject = relocationsPerObject;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Same configuration over another part of the space, e.g. a shard.
+     */
+    public CkQSTConfig withExtent(double x, double y, double width, double height) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    public CkQSTConfig withMaxLeafCapacity(int maxLeafCapacity) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    public CkQSTConfig withThetaU(double thetaU) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    public CkQSTConfig withArrivalHalfLife(double arrivalHalfLife) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    public CkQSTConfig withRelocation(double relocationRatio, double relocationsPerObject) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    /**
+     * Same configuration keeping the objects of the window on or off the heap, see
+     * {@link org.example.structures.OffHeapObjectStore}.
+     */
+    public CkQSTConfig withOffHeap(boolean offHeap) {
+        return new CkQSTConfig(x, y, width, height, maxHeight, maxLeafCapacity, thetaU, arrivalHalfLife,
+                relocationRatio, relocationsPerObject, offHeap);
+    }
+
+    @Override
+    public String toString() {
+        return "CkQSTConfig{" +
+                "x=" + x +
+                ", y=" + y +
+                ", width=" + width +
+                ", height=" + height +
+                ", maxHeight=" + maxHeight +
+                ", maxLeafCapacity=" + maxLeafCapacity +
+                ", thetaU=" + thetaU +
+                ", arrivalHalfLife=" + arrivalHalfLife +
+                ", relocationRatio=" + relocationRatio +
+                ", relocationsPerObject=" + relocationsPerObject +
+                ", offHeap=" + offHeap +
+                '}';
+    }
+}
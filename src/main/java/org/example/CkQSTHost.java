@@ -0,0 +1,140 @@
+package org.example;
+
+import org.example.base.DataObject;
+import org.example.base.Query;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Host of independent engines in one JVM, e.g. one CkQST per city or tenant, each with its own configuration. Every
+ * engine is confined to its own worker thread: the operations of an engine run in the order they were submitted,
+ * while the engines run in parallel with each other.
+ */
+public class CkQSTHost implements AutoCloseable {
+    private final Map<String, Engine> engines = new ConcurrentHashMap<>();
+
+    /**
+     * Create a CkQST engine.
+     *
+     * @param name   Name of the engine, unique in the host.
+     * @param config Configuration of the engine.
+     * @return The engine, which must only be used through the host from now on.
+     */
+    public CkQST create(String name, CkQSTConfig config) {
+        CkQST index = new CkQST(config);
+        add(name, index);
+        return index;
+    }
+
+    /**
+     * Host an engine. An AutoCloseable engine is closed with the host.
+     *
+     * @param name  Name of the engine, unique in the host.
+     * @param index Engine, which must only be used through the host from now on.
+     */
+    public void add(String name, SpatialKeywordIndex<Query, DataObject> index) {
+        Engine engine = new Engine(name, index);
+        if (engines.putIfAbsent(name, engine) != null) {
+            engine.executor.shutdown();
+            throw new IllegalArgumentException("Engine " + name + " already exists!");
+        }
+    }
+
+    public Set<String> names() {
+        return Collections.unmodifiableSet(engines.keySet());
+    }
+
+    /**
+     * Run a task on the thread of an engine.
+     *
+     * @param name Name of the engine.
+     * @param task Task reading or updating the engine.
+     * @return Result of the task, once the operations submitted before it have run.
+     */
+    public <T> CompletableFuture<T> submit(String name, Function<SpatialKeywordIndex<Query, DataObject>, T> task) {
+        Engine engine = engine(name);
+        return CompletableFuture.supplyAsync(() -> task.apply(engine.index), engine.executor);
+    }
+
+    public CompletableFuture<Collection<DataObject>> insertQuery(String name, Query query) {
+        return submit(name, index -> index.insertQuery(query));
+    }
+
+    public CompletableFuture<Boolean> removeQuery(String name, Query query) {
+        return submit(name, index -> index.removeQuery(query));
+    }
+
+    public CompletableFuture<Collection<Query>> insertObjects(String name, List<DataObject> dataObjects) {
+        return submit(name, index -> index.insertObjects(dataObjects));
+    }
+
+    /**
+     * Stop hosting an engine once its submitted operations have run, closing it if it is AutoCloseable.
+     *
+     * @param name Name of the engine.
+     */
+    public CompletableFuture<Void> remove(String name) {
+        Engine engine = engines.remove(name);
+        if (engine == null)
+            throw new IllegalArgumentException("Unknown engine " + name + "!");
+        return engine.shutdown();
+    }
+
+    private Engine engine(String name) {
+        Engine engine = engines.get(name);
+        if (engine == null)
+            throw new IllegalArgumentException("Unknown engine " + name + "!");
+        return engine;
+    }
+
+    /**
+     * Stop all the engines once their submitted operations have run.
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<Void>> shutdowns = new ArrayList<>();
+        for (String name : new ArrayList<>(engines.keySet())) {
+            Engine engine = engines.remove(name);
+            if (engine != null)
+                shutdowns.add(engine.shutdown());
+        }
+        try {
+            CompletableFuture.allOf(shutdowns.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while closing the engines!", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Engine failed to close!", e.getCause());
+        }
+    }
+
+    private static class Engine {
+        private final SpatialKeywordIndex<Query, DataObject> index;
+        private final ExecutorService executor;
+
+        private Engine(String name, SpatialKeywordIndex<Query, DataObject> index) {
+            this.index = index;
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "ckqst-engine-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private CompletableFuture<Void> shutdown() {
+            CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+                if (index instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) index).close();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            }, executor);
+            executor.shutdown();
+            return closed;
+        }
+    }
+}
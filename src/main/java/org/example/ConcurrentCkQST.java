@@ -0,0 +1,259 @@
+package org.example;
+
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.models.CkQuery;
+import org.example.structures.SearchContext;
+import org.example.structures.WindowedIQuadTree;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CkQST matching the objects of a batch with the query index, and re-evaluating the queries affected by a window
+ * repair, on a pool of worker threads.
+ * <p>
+ * The query index is read-only while a batch is matched: the workers only read it, and the top-k of each query is
+ * updated under one of a fixed set of striped locks. The window is read-only while the repaired queries are
+ * re-evaluated, each query by a single worker. Query registrations and removals arriving while a batch is ingested are
+ * queued and applied right after the batch by the thread releasing the ingest lock, so they never stop the workers;
+ * their callers wait for them to be applied.
+ * <p>
+ * The rest of the ingestion is serial under the ingest lock: inserting the objects into the window, evicting them,
+ * matching the evicted objects with the query index, and placing queries again. It bounds the speedup of the workers.
+ */
+public class ConcurrentCkQST extends CkQST implements AutoCloseable {
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int numThreads;
+    private final ExecutorService workers;
+    private final Object[] locks;
+    private final ReentrantLock ingestLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<FutureTask<?>> pending = new ConcurrentLinkedQueue<>();
+    // Scratch space of the re-evaluations of each worker
+    private final ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+
+    public ConcurrentCkQST(int xRange, int yRange, int maxHeight, int numThreads) {
+        this(xRange, yRange, maxHeight, WindowedIQuadTree.WindowType.UNBOUNDED, Long.MAX_VALUE, 1, numThreads);
+    }
+
+    /**
+     * Concurrent CkQST over a sliding window of objects.
+     *
+     * @param numThreads Number of worker threads matching the objects.
+     */
+    public ConcurrentCkQST(int xRange, int yRange, int maxHeight, WindowedIQuadTree.WindowType windowType,
+                           long windowSize, int numSlices, int numThreads) {
+        this(new CkQSTConfig(xRange, yRange, maxHeight), windowType, windowSize, numSlices, numThreads);
+    }
+
+    public ConcurrentCkQST(CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize,
+                           int numSlices, int numThreads) {
+        super(config, windowType, windowSize, numSlices);
+        if (numThreads <= 0)
+            throw new IllegalArgumentException("Thread count must be positive!");
+
+        this.numThreads = numThreads;
+        this.workers = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread thread = new Thread(r, "ckqst-matcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Power of two stripes, enough for two queries of the same stripe to rarely be updated at the same time
+        int stripes = Integer.highestOneBit(numThreads * 64 - 1) << 1;
+        this.locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a batch is being ingested, the registration is deferred until the batch is done, which the caller waits for.
+     */
+    @Override
+    public Collection<DataObject> insertQuery(Query query) {
+        if (query.getClass() != CkQuery.class)
+            throw new RuntimeException("CkQST only support KNNQueries!");
+
+        if (!ingestLock.tryLock())
+            return defer(() -> super.insertQuery(query));
+        try {
+            applyPending();
+            return super.insertQuery(query);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If a batch is being ingested, the removal is deferred until the batch is done, which the caller waits for.
+     */
+    @Override
+    public boolean removeQuery(Query query) {
+        if (!ingestLock.tryLock())
+            return defer(() -> super.removeQuery(query));
+        try {
+            applyPending();
+            return super.removeQuery(query);
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public Collection<Query> insertObject(DataObject dataObject) {
+        return insertObjects(Collections.singletonList(dataObject));
+    }
+
+    @Override
+    public Collection<Query> insertObjects(List<DataObject> dataObjects) {
+        if (dataObjects.isEmpty())
+            return Collections.emptyList();
+
+        ingestLock.lock();
+        try {
+            applyPending();
+            return super.insertObjects(dataObjects);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Match the objects with the query index on the workers, merging the matched objects into the top-k of the
+     * queries.
+     *
+     * @param dataObjects Objects already in the window.
+     * @return Queries matched by any object.
+     */
+    @Override
+    protected Collection<Query> match(List<DataObject> dataObjects) {
+        int chunks = Math.min(dataObjects.size(), numThreads * CHUNKS_PER_THREAD);
+        if (chunks <= 1)
+            return offer(queryIndex.search(dataObjects));
+
+        List<Callable<Collection<Query>>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            List<DataObject> chunk = dataObjects.subList(i * dataObjects.size() / chunks,
+                    (i + 1) * dataObjects.size() / chunks);
+            tasks.add(() -> offer(queryIndex.search(chunk)));
+        }
+
+        Set<Query> queryResults = new LinkedHashSet<>();
+        for (Collection<Query> matched : runAll(tasks))
+            queryResults.addAll(matched);
+        return queryResults;
+    }
+
+    /**
+     * Re-evaluate the repaired queries with kNN searches on the workers.
+     *
+     * @param queries Queries to be refreshed.
+     */
+    @Override
+    protected void refresh(List<CkQuery> queries) {
+        int chunks = Math.min(queries.size(), numThreads * CHUNKS_PER_THREAD);
+        if (chunks <= 1) {
+            super.refresh(queries);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            List<CkQuery> chunk = queries.subList(i * queries.size() / chunks, (i + 1) * queries.size() / chunks);
+            tasks.add(() -> {
+                SearchContext ctx = contexts.get();
+                for (CkQuery query : chunk)
+                    refresh(query, ctx);
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : workers.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the workers!", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Worker failed!", e.getCause());
+        }
+        return results;
+    }
+
+    private Collection<Query> offer(Map<Query, List<DataObject>> matches) {
+        for (Map.Entry<Query, List<DataObject>> entry : matches.entrySet()) {
+            if (!(entry.getKey() instanceof CkQuery))
+                continue;
+            CkQuery query = (CkQuery) entry.getKey();
+            synchronized (locks[query.id & (locks.length - 1)]) {
+                offer(query, entry.getValue());
+            }
+        }
+        return matches.keySet();
+    }
+
+    /**
+     * Queue an operation for the holder of the ingest lock, or apply it if the lock was released in the meantime, and
+     * wait for it to be applied.
+     *
+     * @return Result of the operation.
+     */
+    private <T> T defer(Callable<T> op) {
+        FutureTask<T> task = new FutureTask<>(op);
+        pending.add(task);
+        if (ingestLock.tryLock())
+            unlock();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a deferred query operation!", e);
+        } catch (ExecutionException e) {
+            // The failure is thrown to the caller of the operation, not to the thread which applied it
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException("Deferred query operation failed!", e.getCause());
+        }
+    }
+
+    /**
+     * Release the ingest lock, then apply the operations queued while it was held. An operation is queued before its
+     * thread tries the lock, so it is either seen here or by the thread holding the lock at that time, which does the
+     * same once done.
+     */
+    private void unlock() {
+        ingestLock.unlock();
+        while (!pending.isEmpty() && ingestLock.tryLock()) {
+            try {
+                applyPending();
+            } finally {
+                ingestLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the queued operations. A task keeps the failure of its operation for its caller, so a failed operation
+     * never stops the ones queued after it.
+     */
+    private void applyPending() {
+        FutureTask<?> op;
+        while ((op = pending.poll()) != null)
+            op.run();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+}
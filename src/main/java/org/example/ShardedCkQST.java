@@ -0,0 +1,421 @@
+package org.example;
+
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.helpers.IndexedLongHeap;
+import org.example.helpers.IntArrayList;
+import org.example.helpers.LongIntHashMap;
+import org.example.helpers.TermDictionary;
+import org.example.models.CkQuery;
+import org.example.structures.WindowedIQuadTree;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shared-nothing CkQST. The space is split into a grid of shards, each one a private CkQST confined to its own worker
+ * thread, and an object is only inserted into the shard owning its location.
+ * <p>
+ * A query is copied into every shard overlapping its search range: each copy keeps the top-k of its shard and the
+ * top-k of the query is the merge of them. The query is first evaluated in its home shard, whose local top-k bounds
+ * the range of the global one. When the merged range grows, e.g. because objects left the window, the query is
+ * copied into the shards newly overlapping it. Copies are not dropped when the range shrinks, they only cost extra
+ * matching.
+ * <p>
+ * All the keywords are interned by the calling thread in one dictionary shared by the shards.
+ * <p>
+ * The window of each shard is independent, so a count based window keeps the latest windowSize objects of every
+ * shard.
+ */
+public class ShardedCkQST implements SpatialKeywordIndex<Query, DataObject>, AutoCloseable {
+    private final CkQSTConfig config;
+    private final int cols;
+    private final int rows;
+    private final Shard[] shards;
+    // Shared by the shards, which read it while the coordinating thread interns
+    private final TermDictionary dictionary = new TermDictionary();
+
+    // Slot + 1 of every registered query, keyed by its ID, which its copies share
+    private final LongIntHashMap slots = new LongIntHashMap();
+    // Slots of the removed queries, handed out again before new ones
+    private final IntArrayList freeSlots = new IntArrayList();
+    private int numSlots;
+    private Registration[] registrations = new Registration[16];
+    // Slots of the queries by expiry time
+    private final IndexedLongHeap expiryQueue = new IndexedLongHeap();
+
+    public ShardedCkQST(int xRange, int yRange, int maxHeight, int numShards) {
+        this(xRange, yRange, maxHeight, WindowedIQuadTree.WindowType.UNBOUNDED, Long.MAX_VALUE, 1, numShards);
+    }
+
+    /**
+     * Sharded CkQST over a sliding window of objects.
+     *
+     * @param numShards Number of shards, laid out in a grid as square as possible.
+     */
+    public ShardedCkQST(int xRange, int yRange, int maxHeight, WindowedIQuadTree.WindowType windowType,
+                        long windowSize, int numSlices, int numShards) {
+        this(new CkQSTConfig(xRange, yRange, maxHeight), windowType, windowSize, numSlices, numShards);
+    }
+
+    /**
+     * Sharded CkQST configured like a CkQST over the whole space, every shard getting the configuration over its
+     * part of the space.
+     */
+    public ShardedCkQST(CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize,
+                        int numSlices, int numShards) {
+        if (numShards <= 0)
+            throw new IllegalArgumentException("Shard count must be positive!");
+
+        this.config = config;
+        int cols = (int) Math.ceil(Math.sqrt(numShards));
+        while (numShards % cols != 0)
+            cols++;
+        this.cols = cols;
+        this.rows = numShards / cols;
+
+        this.shards = new Shard[numShards];
+        double w = config.width / this.cols;
+        double h = config.height / this.rows;
+        for (int i = 0; i < numShards; i++) {
+            CkQSTConfig shardConfig = config.withExtent(config.x + (i % this.cols) * w,
+                    config.y + (i / this.cols) * h, w, h);
+            shards[i] = new Shard(i, shardConfig, windowType, windowSize, numSlices, dictionary);
+        }
+    }
+
+    /**
+     * Dictionary of the term IDs shared by the shards. Objects and queries whose terms are already set must have been
+     * interned in it.
+     */
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public CkQSTConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public void preloadObject(DataObject object) {
+        dictionary.intern(object);
+        Shard shard = shardOf(object.location.x, object.location.y);
+        await(Collections.singletonList(shard.submit(() -> {
+            shard.index.preloadObject(object);
+            return null;
+        })));
+    }
+
+    @Override
+    public Collection<DataObject> insertQuery(Query query) {
+        if (query.getClass() != CkQuery.class)
+            throw new RuntimeException("CkQST only support KNNQueries!");
+
+        CkQuery q = (CkQuery) query;
+        if (slots.get(q.id) != 0)
+            throw new IllegalArgumentException("Query " + q.id + " is already registered!");
+        dictionary.intern(q);
+        Registration registration = new Registration(q, assignSlot(q.id), shards.length);
+        registrations[registration.slot] = registration;
+        expiryQueue.add(registration.slot, q.et);
+
+        // The top-k of the home shard bounds the range of the query
+        register(registration, Collections.singletonList(shardOf(q.location.x, q.location.y)));
+        extend(registration);
+        return q.getResults();
+    }
+
+    /**
+     * Remove the query with the ID of the given one.
+     *
+     * @param query Query equal to the registered one.
+     * @return True if a copy of the query was still registered in its shard.
+     */
+    @Override
+    public boolean removeQuery(Query query) {
+        Registration registration = registrationOf(query);
+        if (registration == null)
+            return false;
+
+        freeSlot(registration.slot);
+        boolean removed = false;
+        for (boolean copyRemoved : removeCopies(registration))
+            removed |= copyRemoved;
+        return removed;
+    }
+
+    /**
+     * Registration of the query with the ID of the given query or copy, null if there is none.
+     */
+    private Registration registrationOf(Query query) {
+        int slot = slots.get(query.id) - 1;
+        return slot < 0 ? null : registrations[slot];
+    }
+
+    private int assignSlot(int id) {
+        int slot = freeSlots.isEmpty() ? numSlots++ : freeSlots.removeLast();
+        if (slot >= registrations.length)
+            registrations = Arrays.copyOf(registrations, registrations.length * 2);
+        slots.add(id, slot + 1);
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        expiryQueue.remove(slot);
+        slots.add(registrations[slot].query.id, -(slot + 1));
+        registrations[slot] = null;
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Remove the copies of a query from their shards.
+     *
+     * @param registration Registration of the query.
+     * @return Whether each copy was still registered in its shard.
+     */
+    private List<Boolean> removeCopies(Registration registration) {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Shard shard : shards) {
+            CkQuery copy = registration.copies[shard.id];
+            if (copy != null)
+                futures.add(shard.submit(() -> shard.index.removeQuery(copy)));
+        }
+        return await(futures);
+    }
+
+    @Override
+    public Collection<Query> insertObject(DataObject dataObject) {
+        return insertObjects(Collections.singletonList(dataObject));
+    }
+
+    @Override
+    public Collection<Query> insertObjects(List<DataObject> dataObjects) {
+        if (dataObjects.isEmpty())
+            return Collections.emptyList();
+
+        List<List<DataObject>> batches = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++)
+            batches.add(new ArrayList<>());
+        long last = Long.MIN_VALUE;
+        for (DataObject dataObject : dataObjects) {
+            dictionary.intern(dataObject);
+            batches.get(shardOf(dataObject.location.x, dataObject.location.y).id).add(dataObject);
+            last = Math.max(last, dataObject.st);
+        }
+
+        // Every shard follows the time of the stream, even if it got no object of the batch
+        final long now = last;
+        List<Future<Collection<Query>>> futures = new ArrayList<>();
+        for (Shard shard : shards) {
+            List<DataObject> batch = batches.get(shard.id);
+            futures.add(shard.submit(() -> shard.insertObjects(batch, now)));
+        }
+
+        // Merge the partial top-k of every query one of the shards has touched
+        Set<Registration> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Collection<Query> touched : await(futures)) {
+            for (Query copy : touched) {
+                // The copies of a removed query are gone from their shards before it is removed
+                Registration registration = registrationOf(copy);
+                if (registration != null)
+                    affected.add(registration);
+            }
+        }
+        // A copy matches with the range of its shard, which can be wider than the merged one, so only the queries
+        // whose merged top-k took an object of the batch are reported
+        Set<DataObject> batch = new HashSet<>(dataObjects);
+        Set<Query> queryResults = new LinkedHashSet<>();
+        for (Registration registration : affected) {
+            merge(registration);
+            extend(registration);
+            for (DataObject object : registration.query.getResults()) {
+                if (batch.contains(object)) {
+                    queryResults.add(registration.query);
+                    break;
+                }
+            }
+        }
+
+        expire(last);
+        return queryResults;
+    }
+
+    /**
+     * Copy the query into every shard overlapping its merged range it is not registered in yet.
+     *
+     * @param registration Registration of the query.
+     */
+    private void extend(Registration registration) {
+        while (registration.query.sr > registration.radius) {
+            registration.radius = registration.query.sr;
+            List<Shard> overlapping = new ArrayList<>();
+            for (Shard shard : shards) {
+                if (registration.copies[shard.id] == null && shard.intersects(registration.query))
+                    overlapping.add(shard);
+            }
+            if (overlapping.isEmpty())
+                return;
+            register(registration, overlapping);
+        }
+    }
+
+    /**
+     * Copy the query into the shards and merge their top-k.
+     *
+     * @param registration Registration of the query.
+     * @param targets      Shards the query is not registered in yet.
+     */
+    private void register(Registration registration, List<Shard> targets) {
+        CkQuery q = registration.query;
+        List<Future<Collection<DataObject>>> futures = new ArrayList<>();
+        for (Shard shard : targets) {
+            CkQuery copy = new CkQuery(q.id, q.keywords, q.location.x, q.location.y, q.k, q.st, q.et);
+            copy.setTerms(q.terms);
+            registration.copies[shard.id] = copy;
+            futures.add(shard.submit(() -> shard.index.insertQuery(copy)));
+        }
+        await(futures);
+        merge(registration);
+    }
+
+    /**
+     * Recompute the top-k of the query from the top-k of its copies.
+     *
+     * @param registration Registration of the query.
+     */
+    private void merge(Registration registration) {
+        CkQuery q = registration.query;
+        q.clearResults();
+        for (CkQuery copy : registration.copies) {
+            if (copy == null)
+                continue;
+            for (DataObject object : copy.getResults())
+                q.offer(object);
+        }
+    }
+
+    /**
+     * Forget the expired queries and remove their copies from the shards, which may have expired some of them
+     * already.
+     *
+     * @param now Current time.
+     */
+    private void expire(long now) {
+        while (!expiryQueue.isEmpty() && expiryQueue.peekPriority() < now) {
+            Registration registration = registrations[expiryQueue.peek()];
+            freeSlot(registration.slot);
+            removeCopies(registration);
+        }
+    }
+
+    private Shard shardOf(double x, double y) {
+        int col = Math.min(cols - 1, Math.max(0, (int) ((x - config.x) * cols / config.width)));
+        int row = Math.min(rows - 1, Math.max(0, (int) ((y - config.y) * rows / config.height)));
+        return shards[row * cols + col];
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) {
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures)
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a shard!", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Shard failed!", e.getCause());
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards)
+            shard.executor.shutdown();
+    }
+
+    private static class Registration {
+        private final CkQuery query;
+        private final int slot;
+        // Copy of the query in each shard, null where it is not registered
+        private final CkQuery[] copies;
+        // Range the shards of the copies were chosen for
+        private double radius = -1;
+
+        private Registration(CkQuery query, int slot, int numShards) {
+            this.query = query;
+            this.slot = slot;
+            this.copies = new CkQuery[numShards];
+        }
+    }
+
+    private static class Shard {
+        private final int id;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+        private final ShardIndex index;
+        private final ExecutorService executor;
+
+        private Shard(int id, CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize,
+                      int numSlices, TermDictionary dictionary) {
+            this.id = id;
+            this.minX = config.x;
+            this.minY = config.y;
+            this.maxX = config.x + config.width;
+            this.maxY = config.y + config.height;
+            this.index = new ShardIndex(config, windowType, windowSize, numSlices, dictionary);
+            this.executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "ckqst-shard-" + id);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        private <T> Future<T> submit(Callable<T> task) {
+            return executor.submit(task);
+        }
+
+        /**
+         * Insert the objects owned by the shard and move its time forward.
+         *
+         * @return Copies matched by the objects or re-evaluated after objects left the window.
+         */
+        private Collection<Query> insertObjects(List<DataObject> dataObjects, long now) {
+            index.repaired.clear();
+            List<Query> touched = new ArrayList<>(index.insertObjects(dataObjects));
+            index.advanceTime(now);
+            touched.addAll(index.repaired);
+            return touched;
+        }
+
+        /**
+         * Whether the search range of the query overlaps the shard.
+         */
+        private boolean intersects(CkQuery query) {
+            double dx = Math.max(0, Math.max(minX - query.location.x, query.location.x - maxX));
+            double dy = Math.max(0, Math.max(minY - query.location.y, query.location.y - maxY));
+            return dx * dx + dy * dy <= query.sr * query.sr;
+        }
+    }
+
+    /**
+     * CkQST of a shard, remembering the copies re-evaluated by the window repair.
+     */
+    private static class ShardIndex extends CkQST {
+        private final List<CkQuery> repaired = new ArrayList<>();
+
+        private ShardIndex(CkQSTConfig config, WindowedIQuadTree.WindowType windowType, long windowSize,
+                           int numSlices, TermDictionary dictionary) {
+            super(config, windowType, windowSize, numSlices, dictionary);
+        }
+
+        @Override
+        protected Collection<CkQuery> repair(Collection<DataObject> expired) {
+            Collection<CkQuery> affected = super.repair(expired);
+            repaired.addAll(affected);
+            return affected;
+        }
+    }
+}
@@ -4,10 +4,19 @@ import org.example.base.DataObject;
 import org.example.base.Query;
 
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 public interface SpatialKeywordIndex<Q extends Query, O extends DataObject> {
     default void preloadObject(O object) {};
     default void preloadQuery(Q query) {};
     Collection<O> insertQuery(Q query);
+    default boolean removeQuery(Q query) { return false; };
     Collection<Q> insertObject(O dataObject);
+    default Collection<Q> insertObjects(List<O> dataObjects) {
+        Collection<Q> results = new LinkedHashSet<>();
+        for (O dataObject : dataObjects)
+            results.addAll(insertObject(dataObject));
+        return results;
+    };
 }
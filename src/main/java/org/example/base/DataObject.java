@@ -19,12 +19,22 @@
  */
 package org.example.base;
 
+import org.example.helpers.TermDictionary;
+
 import java.util.List;
 
 public class DataObject {
     public int id;
     public Point location;
     public List<String> keywords;
+    /**
+     * Sorted term IDs of the keywords, set when the object is interned.
+     */
+    public int[] terms;
+    /**
+     * Keyword signature of the terms, see {@link TermDictionary#signature(int[])}.
+     */
+    public long signature;
     public Long st;
     public Long et;
 
@@ -36,6 +46,16 @@ public class DataObject {
         this.et = et;
     }
 
+    /**
+     * Set the term IDs of the object and their signature.
+     *
+     * @param terms Sorted and distinct term IDs.
+     */
+    public void setTerms(int[] terms) {
+        this.terms = terms;
+        this.signature = TermDictionary.signature(terms);
+    }
+
     @Override
     public String toString() {
         return "DataObject{" +
@@ -56,4 +76,9 @@ public class DataObject {
         return (this.id == ((DataObject) other).id);
     }
 
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
+
 }
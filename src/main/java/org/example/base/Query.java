@@ -1,10 +1,20 @@
 package org.example.base;
 
+import org.example.helpers.TermDictionary;
+
 import java.util.List;
 
 public abstract class Query {
     public int id;
     public List<String> keywords;
+    /**
+     * Sorted term IDs of the keywords, set when the query is interned.
+     */
+    public int[] terms;
+    /**
+     * Keyword signature of the terms, see {@link org.example.helpers.TermDictionary#signature(int[])}.
+     */
+    public long signature;
     public long st;
     public long et;
 
@@ -15,6 +25,16 @@ public abstract class Query {
         this.et = et;
     }
 
+    /**
+     * Set the term IDs of the query and their signature.
+     *
+     * @param terms Sorted and distinct term IDs.
+     */
+    public void setTerms(int[] terms) {
+        this.terms = terms;
+        this.signature = TermDictionary.signature(terms);
+    }
+
     /**
      * Get the spatial range of the query as a rectangle
      * @return Minimal covering rectangle for the range.
@@ -28,4 +48,9 @@ public abstract class Query {
         Query query = (Query) o;
         return id == query.id;
     }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(id);
+    }
 }
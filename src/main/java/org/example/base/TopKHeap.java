@@ -0,0 +1,167 @@
+package org.example.base;
+
+/**
+ * Fixed capacity max-heap of the k closest candidates seen so far. Each entry is a squared distance stored next to an
+ * int handle of the candidate, so nothing is boxed and a distance is computed only once per candidate. A candidate
+ * no closer than the current k-th one is rejected without touching the heap.
+ * <p>
+ * Handles are either given by the caller, or, with {@link #offerSlot(double)}, are slots in [0, k) the caller can use
+ * to index its own array of candidates: a slot is reused by the candidate replacing the one that held it.
+ */
+public class TopKHeap {
+    private double[] dists;
+    private int[] handles;
+    private int capacity;
+    private int size;
+
+    public TopKHeap(int capacity) {
+        this.dists = new double[Math.max(1, capacity)];
+        this.handles = new int[Math.max(1, capacity)];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Empty the heap and change its capacity.
+     *
+     * @param capacity Number of candidates to keep.
+     */
+    public void reset(int capacity) {
+        if (capacity > dists.length) {
+            dists = new double[capacity];
+            handles = new int[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /**
+     * Squared distance a new candidate must beat to enter the heap.
+     *
+     * @return Squared distance of the k-th candidate, or infinity while the heap is not full.
+     */
+    public double bound() {
+        return isFull() ? dists[0] : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Offer a candidate with its own handle.
+     *
+     * @param distSqr Squared distance of the candidate.
+     * @param handle  Handle of the candidate.
+     * @return True if the candidate entered the heap.
+     */
+    public boolean offer(double distSqr, int handle) {
+        if (size < capacity) {
+            siftUp(size++, distSqr, handle);
+            return true;
+        }
+        if (capacity == 0 || distSqr >= dists[0])
+            return false;
+
+        siftDown(0, distSqr, handle);
+        return true;
+    }
+
+    /**
+     * Offer a candidate which should be stored in a slot of the caller.
+     *
+     * @param distSqr Squared distance of the candidate.
+     * @return Slot to store the candidate in, or -1 if it was rejected.
+     */
+    public int offerSlot(double distSqr) {
+        if (size < capacity) {
+            int slot = size;
+            siftUp(size++, distSqr, slot);
+            return slot;
+        }
+        if (capacity == 0 || distSqr >= dists[0])
+            return -1;
+
+        int slot = handles[0];
+        siftDown(0, distSqr, slot);
+        return slot;
+    }
+
+    /**
+     * Squared distance of an entry, in heap order.
+     */
+    public double dist(int i) {
+        return dists[i];
+    }
+
+    /**
+     * Handle of an entry, in heap order.
+     */
+    public int handle(int i) {
+        return handles[i];
+    }
+
+    /**
+     * Indexes of the entries ordered by ascending distance.
+     *
+     * @return Positions to pass to {@link #dist(int)} and {@link #handle(int)}.
+     */
+    public int[] sortedOrder() {
+        // Insertion sort, k is small
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            int j = i;
+            while (j > 0 && dists[order[j - 1]] > dists[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return order;
+    }
+
+    private void siftUp(int i, double dist, int handle) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (dists[parent] >= dist)
+                break;
+            dists[i] = dists[parent];
+            handles[i] = handles[parent];
+            i = parent;
+        }
+        dists[i] = dist;
+        handles[i] = handle;
+    }
+
+    private void siftDown(int i, double dist, int handle) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && dists[child + 1] > dists[child])
+                child++;
+            if (dist >= dists[child])
+                break;
+            dists[i] = dists[child];
+            handles[i] = handles[child];
+            i = child;
+        }
+        dists[i] = dist;
+        handles[i] = handle;
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of dense non-negative int keys ordered by a long priority, e.g. query slots by expiry time. Every key
+ * knows its position in the heap, so a key is removed in O(log n) instead of the O(n) of a PriorityQueue.
+ */
+public class IndexedLongHeap {
+    private int[] keys = new int[16];
+    private long[] priorities = new long[16];
+    // Position of each key in the heap, -1 if absent
+    private int[] positions = new int[16];
+    private int size;
+
+    public IndexedLongHeap() {
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * Add a key which is not in the heap.
+     */
+    public void add(int key, long priority) {
+        if (contains(key))
+            throw new IllegalArgumentException("Key " + key + " is already in the heap!");
+        if (key >= positions.length) {
+            int n = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(key + 1, n * 2));
+            Arrays.fill(positions, n, positions.length, -1);
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        siftUp(size++, key, priority);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @return True if the key was in the heap.
+     */
+    public boolean remove(int key) {
+        if (!contains(key))
+            return false;
+        int i = positions[key];
+        positions[key] = -1;
+        int lastKey = keys[--size];
+        long lastPriority = priorities[size];
+        if (i < size) {
+            // The last entry takes the hole, moving up or down from it
+            if (i > 0 && lastPriority < priorities[(i - 1) >>> 1])
+                siftUp(i, lastKey, lastPriority);
+            else
+                siftDown(i, lastKey, lastPriority);
+        }
+        return true;
+    }
+
+    public boolean contains(int key) {
+        return key >= 0 && key < positions.length && positions[key] >= 0;
+    }
+
+    /**
+     * Key with the lowest priority.
+     */
+    public int peek() {
+        if (size == 0)
+            throw new IllegalStateException("Heap is empty!");
+        return keys[0];
+    }
+
+    /**
+     * Lowest priority in the heap.
+     */
+    public long peekPriority() {
+        if (size == 0)
+            throw new IllegalStateException("Heap is empty!");
+        return priorities[0];
+    }
+
+    /**
+     * Remove the key with the lowest priority.
+     */
+    public int poll() {
+        int key = peek();
+        remove(key);
+        return key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            positions[keys[i]] = -1;
+        size = 0;
+    }
+
+    private void siftUp(int i, int key, long priority) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] <= priority)
+                break;
+            set(i, keys[parent], priorities[parent]);
+            i = parent;
+        }
+        set(i, key, priority);
+    }
+
+    private void siftDown(int i, int key, long priority) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && priorities[child + 1] < priorities[child])
+                child++;
+            if (priority <= priorities[child])
+                break;
+            set(i, keys[child], priorities[child]);
+            i = child;
+        }
+        set(i, key, priority);
+    }
+
+    private void set(int i, int key, long priority) {
+        keys[i] = key;
+        priorities[i] = priority;
+        positions[key] = i;
+    }
+}
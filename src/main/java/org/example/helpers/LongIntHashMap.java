@@ -0,0 +1,102 @@
+package org.example.helpers;
+
+/**
+ * Open addressing hash map from primitive long keys to non-zero int counters. A key whose counter drops to zero is
+ * removed, so a zero value marks a free slot.
+ */
+public class LongIntHashMap {
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int capacity) {
+        int n = Integer.highestOneBit(Math.max(4, capacity) * 2 - 1);
+        this.keys = new long[n];
+        this.values = new int[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * Get the counter of the key.
+     *
+     * @param key Key to look up.
+     * @return Counter of the key, zero if absent.
+     */
+    public int get(long key) {
+        for (int i = slot(key); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return 0;
+    }
+
+    /**
+     * Add delta to the counter of the key.
+     *
+     * @param key   Key of the counter.
+     * @param delta Value to add, may be negative.
+     * @return New value of the counter.
+     */
+    public int add(long key, int delta) {
+        int i = slot(key);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int value = values[i] + delta;
+                values[i] = value;
+                if (value == 0)
+                    removeAt(i);
+                return value;
+            }
+        }
+        if (delta == 0)
+            return 0;
+
+        keys[i] = key;
+        values[i] = delta;
+        if (++size * 2 > keys.length)
+            rehash(keys.length * 2);
+        return delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void removeAt(int i) {
+        size--;
+        // Shift back the following entries of the probe sequence to close the gap
+        int gap = i;
+        for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = 0;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0)
+                add(oldKeys[i], oldValues[i]);
+        }
+    }
+}
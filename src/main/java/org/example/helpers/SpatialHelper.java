@@ -20,6 +20,7 @@
 package org.example.helpers;
 
 import org.example.base.Point;
+import org.example.structures.AxisAlignedBoundingBox;
 
 public class SpatialHelper {
 
@@ -27,4 +28,83 @@ public class SpatialHelper {
         return Math.sqrt(Math.pow(p1.x - p2.x, 2) + Math.pow(p1.y - p2.y, 2));
 
     }
+
+    /**
+     * Morton code of the quadtree cell containing a point, found by halving the box exactly the way the quadtrees
+     * subdivide it. Every level adds two bits (y then x, 1 for the upper half) below a leading 1 bit, so codes of
+     * different levels never collide and the code of an ancestor cell is a right shift of the code.
+     *
+     * @param x      X coordinate of the point.
+     * @param y      Y coordinate of the point.
+     * @param box    Box of the root cell.
+     * @param depth  Number of subdivisions below the root, at most 31.
+     * @return Morton code of the cell at the given depth.
+     */
+    public static long getMortonCode(double x, double y, AxisAlignedBoundingBox box, int depth) {
+        double minX = box.x;
+        double minY = box.y;
+        double w = box.width;
+        double h = box.height;
+
+        long code = 1;
+        for (int d = 0; d < depth; d++) {
+            w = w / 2d;
+            h = h / 2d;
+            long quad = 0;
+            if (y >= minY + h) {
+                minY = minY + h;
+                quad = 2;
+            }
+            if (x >= minX + w) {
+                minX = minX + w;
+                quad |= 1;
+            }
+            code = (code << 2) | quad;
+        }
+        return code;
+    }
+
+    /**
+     * Sort objects by their Morton codes, so that the objects of every quadtree cell form a contiguous range.
+     *
+     * @param objects Objects to sort, in place.
+     * @param codes   Morton codes of the objects, sorted along with them.
+     * @param from    First index of the range to sort.
+     * @param to      Index after the last one of the range to sort.
+     */
+    public static <O> void sortByMortonCode(O[] objects, long[] codes, int from, int to) {
+        while (to - from > 16) {
+            long pivot = codes[(from + to) >>> 1];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (codes[i] < pivot) i++;
+                while (codes[j] > pivot) j--;
+                if (i <= j)
+                    swap(objects, codes, i++, j--);
+            }
+            // Recurse into the smaller part to bound the stack depth
+            if (j - from < to - i) {
+                sortByMortonCode(objects, codes, from, j + 1);
+                from = i;
+            } else {
+                sortByMortonCode(objects, codes, i, to);
+                to = j + 1;
+            }
+        }
+
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && codes[j - 1] > codes[j]; j--)
+                swap(objects, codes, j, j - 1);
+        }
+    }
+
+    private static <O> void swap(O[] objects, long[] codes, int i, int j) {
+        O o = objects[i];
+        objects[i] = objects[j];
+        objects[j] = o;
+        long c = codes[i];
+        codes[i] = codes[j];
+        codes[j] = c;
+    }
 }
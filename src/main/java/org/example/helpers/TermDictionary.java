@@ -0,0 +1,180 @@
+package org.example.helpers;
+
+import org.example.base.DataObject;
+import org.example.base.Query;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns keywords to dense int term IDs. Term arrays are kept sorted by ID, which is the global keyword order the
+ * ordered inverted index relies on.
+ * <p>
+ * Only one thread at a time may intern, but the keywords and IDs can be read by any thread meanwhile, e.g. the shards
+ * of a {@link org.example.ShardedCkQST} while the coordinating thread interns the next batch. The keywords are
+ * appended to an array which is copied when it grows, and published by the volatile size.
+ */
+public class TermDictionary {
+    private final ConcurrentHashMap<String, Integer> ids;
+    private volatile String[] terms;
+    private volatile int size;
+
+    public TermDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.terms = new String[16];
+    }
+
+    /**
+     * Get the ID of the keyword, assigning the next free ID if it is new.
+     *
+     * @param keyword Keyword to intern.
+     * @return Term ID of the keyword.
+     */
+    public int intern(String keyword) {
+        Integer id = ids.get(keyword);
+        if (id == null) {
+            id = size;
+            String[] terms = this.terms;
+            if (id == terms.length) {
+                // Readers keep the old array, which holds every keyword they can see
+                terms = Arrays.copyOf(terms, id * 2);
+                this.terms = terms;
+            }
+            terms[id] = keyword;
+            ids.put(keyword, id);
+            size = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Get the ID of the keyword without interning it.
+     *
+     * @param keyword Keyword to look up.
+     * @return Term ID of the keyword or -1 if it was never interned.
+     */
+    public int lookup(String keyword) {
+        Integer id = ids.get(keyword);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Intern a list of keywords.
+     *
+     * @param keywords Keywords to intern.
+     * @return Sorted and distinct term IDs of the keywords.
+     */
+    public int[] intern(List<String> keywords) {
+        int[] out = new int[keywords.size()];
+        for (int i = 0; i < out.length; i++)
+            out[i] = intern(keywords.get(i));
+        return sortDistinct(out);
+    }
+
+    /**
+     * Set the term IDs of the object, unless they are already set.
+     *
+     * @param object Object to intern.
+     */
+    public void intern(DataObject object) {
+        if (object.terms == null)
+            object.setTerms(intern(object.keywords));
+    }
+
+    /**
+     * Set the term IDs of the query, unless they are already set.
+     *
+     * @param query Query to intern.
+     */
+    public void intern(Query query) {
+        if (query.terms == null)
+            query.setTerms(intern(query.keywords));
+    }
+
+    /**
+     * Get the keyword for a term ID.
+     *
+     * @param id Term ID.
+     * @return Keyword interned as the ID.
+     */
+    public String term(int id) {
+        // An ID just handed out by lookup may not be counted in the size yet, but its keyword is in the array
+        String[] terms = this.terms;
+        if (id < 0 || id >= terms.length || terms[id] == null)
+            throw new IndexOutOfBoundsException("Term " + id + " is not in the dictionary!");
+        return terms[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Keywords of a term array as a read-only view, resolved through the dictionary on access.
+     *
+     * @param terms Term IDs interned in this dictionary.
+     * @return Keywords of the terms.
+     */
+    public List<String> keywords(int[] terms) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return term(terms[index]);
+            }
+
+            @Override
+            public int size() {
+                return terms.length;
+            }
+        };
+    }
+
+    /**
+     * 64 bit signature of a term array, with bit (term mod 64) set for each term. If a query has a bit its object lacks,
+     * the object does not contain all its keywords, which a single AND tells. Term IDs are handed out in order of first
+     * appearance, so the most frequent terms tend to get bits of their own.
+     *
+     * @param terms Term IDs.
+     * @return Signature of the terms.
+     */
+    public static long signature(int[] terms) {
+        long signature = 0;
+        for (int term : terms)
+            signature |= 1L << term;
+        return signature;
+    }
+
+    /**
+     * Is the sorted term array a superset of another sorted term array.
+     *
+     * @param terms    Sorted term IDs.
+     * @param subTerms Sorted term IDs which should be contained.
+     * @return True if every term of subTerms is in terms.
+     */
+    public static boolean containsAll(int[] terms, int[] subTerms) {
+        if (subTerms.length > terms.length)
+            return false;
+
+        int i = 0;
+        for (int t : subTerms) {
+            while (i < terms.length && terms[i] < t)
+                i++;
+            if (i == terms.length || terms[i] != t)
+                return false;
+            i++;
+        }
+        return true;
+    }
+
+    private static int[] sortDistinct(int[] terms) {
+        Arrays.sort(terms);
+        int n = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (i == 0 || terms[i] != terms[n - 1])
+                terms[n++] = terms[i];
+        }
+        return n == terms.length ? terms : Arrays.copyOf(terms, n);
+    }
+}
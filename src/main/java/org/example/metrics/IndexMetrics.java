@@ -0,0 +1,219 @@
+package org.example.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runtime counters of the object and query indexes, enabled with the system property {@code ckqst.metrics=true}.
+ * <p>
+ * Every call site checks {@link #ENABLED} first. It is a static final constant, so when metrics are disabled the JIT
+ * drops the counting code altogether. The counters are {@link LongAdder}s, whose cells are striped across the
+ * updating threads, so the matching workers do not contend on them.
+ */
+public final class IndexMetrics implements IndexMetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("ckqst.metrics");
+    public static final String OBJECT_NAME = "org.example:type=IndexMetrics";
+
+    private static final IndexMetrics INSTANCE = new IndexMetrics();
+    private static final int MAX_HEIGHT = 64;
+    private static final LongAdder[] OBJECTS_ROUTED = new LongAdder[MAX_HEIGHT + 1];
+    private static final LongAdder OBJECT_SEARCHES = new LongAdder();
+    private static final LongAdder POSTING_LISTS_PROBED = new LongAdder();
+    private static final LongAdder BLOCKS_SCANNED = new LongAdder();
+    private static final LongAdder SPATIAL_CHECKS = new LongAdder();
+    private static final LongAdder SPATIAL_MATCHES = new LongAdder();
+    private static final LongAdder QUERY_OFFERS = new LongAdder();
+    private static final LongAdder QUERY_REEVALUATIONS = new LongAdder();
+    private static final LongAdder KNN_SEARCHES = new LongAdder();
+    private static final LongAdder NODES_POPPED = new LongAdder();
+    private static final LongAdder SIGNATURE_CHECKS = new LongAdder();
+    private static final LongAdder SIGNATURE_FAILURES = new LongAdder();
+
+    static {
+        for (int i = 0; i < OBJECTS_ROUTED.length; i++)
+            OBJECTS_ROUTED[i] = new LongAdder();
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+                        new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not register the index metrics!", e);
+            }
+        }
+    }
+
+    private IndexMetrics() {
+    }
+
+    /**
+     * Current values of the counters.
+     */
+    public static IndexMetricsMXBean get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Objects were routed into a node of the query index.
+     *
+     * @param height Height of the node.
+     * @param count  Number of objects.
+     */
+    public static void objectsRouted(int height, int count) {
+        OBJECTS_ROUTED[Math.min(height, MAX_HEIGHT)].add(count);
+    }
+
+    /**
+     * An object was matched with the inverted index of a node.
+     */
+    public static void objectSearched() {
+        OBJECT_SEARCHES.increment();
+    }
+
+    /**
+     * A posting list of the keyword pair of an object was looked up and found.
+     */
+    public static void postingListProbed() {
+        POSTING_LISTS_PROBED.increment();
+    }
+
+    /**
+     * The queries of a block were scanned.
+     */
+    public static void blockScanned() {
+        BLOCKS_SCANNED.increment();
+    }
+
+    /**
+     * The search range of a textually matched query was checked against an object.
+     *
+     * @param match Whether the range contained the object.
+     */
+    public static void spatialCheck(boolean match) {
+        SPATIAL_CHECKS.increment();
+        if (match)
+            SPATIAL_MATCHES.increment();
+    }
+
+    /**
+     * A matched object was offered to the top-k of a query.
+     */
+    public static void queryOffered() {
+        QUERY_OFFERS.increment();
+    }
+
+    /**
+     * The top-k of a query was recomputed with a kNN search after one of its objects left the window.
+     */
+    public static void queryReevaluated() {
+        QUERY_REEVALUATIONS.increment();
+    }
+
+    /**
+     * A kNN search was run over a keyword quadtree.
+     */
+    public static void knnSearched() {
+        KNN_SEARCHES.increment();
+    }
+
+    /**
+     * A node was popped from the frontier of a kNN search.
+     */
+    public static void nodePopped() {
+        NODES_POPPED.increment();
+    }
+
+    /**
+     * The cell of a black node was checked for the other keywords of the query.
+     *
+     * @param pass Whether every keyword has objects in the cell.
+     */
+    public static void signatureCheck(boolean pass) {
+        SIGNATURE_CHECKS.increment();
+        if (!pass)
+            SIGNATURE_FAILURES.increment();
+    }
+
+    @Override
+    public long[] getObjectsRoutedPerHeight() {
+        int height = MAX_HEIGHT;
+        while (height > 0 && OBJECTS_ROUTED[height].sum() == 0)
+            height--;
+        long[] routed = new long[height];
+        for (int i = 0; i < height; i++)
+            routed[i] = OBJECTS_ROUTED[i + 1].sum();
+        return routed;
+    }
+
+    @Override
+    public long getObjectSearches() {
+        return OBJECT_SEARCHES.sum();
+    }
+
+    @Override
+    public long getPostingListsProbed() {
+        return POSTING_LISTS_PROBED.sum();
+    }
+
+    @Override
+    public long getBlocksScanned() {
+        return BLOCKS_SCANNED.sum();
+    }
+
+    @Override
+    public long getSpatialChecks() {
+        return SPATIAL_CHECKS.sum();
+    }
+
+    @Override
+    public long getSpatialMatches() {
+        return SPATIAL_MATCHES.sum();
+    }
+
+    @Override
+    public double getSpatialFalsePositiveRate() {
+        long checks = SPATIAL_CHECKS.sum();
+        return checks == 0 ? 0 : 1 - (double) SPATIAL_MATCHES.sum() / checks;
+    }
+
+    @Override
+    public long getQueryOffers() {
+        return QUERY_OFFERS.sum();
+    }
+
+    @Override
+    public long getQueryReevaluations() {
+        return QUERY_REEVALUATIONS.sum();
+    }
+
+    @Override
+    public long getKnnSearches() {
+        return KNN_SEARCHES.sum();
+    }
+
+    @Override
+    public long getNodesPopped() {
+        return NODES_POPPED.sum();
+    }
+
+    @Override
+    public long getSignatureChecks() {
+        return SIGNATURE_CHECKS.sum();
+    }
+
+    @Override
+    public long getSignatureFailures() {
+        return SIGNATURE_FAILURES.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder routed : OBJECTS_ROUTED)
+            routed.reset();
+        for (LongAdder counter : new LongAdder[]{OBJECT_SEARCHES, POSTING_LISTS_PROBED, BLOCKS_SCANNED,
+                SPATIAL_CHECKS, SPATIAL_MATCHES, QUERY_OFFERS, QUERY_REEVALUATIONS, KNN_SEARCHES, NODES_POPPED,
+                SIGNATURE_CHECKS, SIGNATURE_FAILURES})
+            counter.reset();
+    }
+}
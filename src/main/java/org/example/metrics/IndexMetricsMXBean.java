@@ -0,0 +1,40 @@
+package org.example.metrics;
+
+/**
+ * JMX view of the {@link IndexMetrics}, registered as {@value IndexMetrics#OBJECT_NAME}.
+ */
+public interface IndexMetricsMXBean {
+    /**
+     * Objects routed into the nodes of the query index, by height of the node (the root is at height 1).
+     */
+    long[] getObjectsRoutedPerHeight();
+
+    long getObjectSearches();
+
+    long getPostingListsProbed();
+
+    long getBlocksScanned();
+
+    long getSpatialChecks();
+
+    long getSpatialMatches();
+
+    /**
+     * Share of the spatial checks of the textually matched queries which did not contain the object.
+     */
+    double getSpatialFalsePositiveRate();
+
+    long getQueryOffers();
+
+    long getQueryReevaluations();
+
+    long getKnnSearches();
+
+    long getNodesPopped();
+
+    long getSignatureChecks();
+
+    long getSignatureFailures();
+
+    void reset();
+}
@@ -1,21 +1,115 @@
 package org.example.models;
 
+import org.example.base.DataObject;
 import org.example.base.Point;
 import org.example.base.Query;
 import org.example.base.Rectangle;
+import org.example.base.TopKHeap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 public class CkQuery extends Query {
     public Point location;
-    public double sr;
+    // Only shrinks while objects are matched, so a concurrent matcher reading it sees a superset of the range
+    public volatile double sr;
+    // Search range the query was last placed in the query index with
+    public double placedSr = Double.MAX_VALUE;
     public int k;
+    // Top-k of the query, the heap hands out slots of the object array
+    private final TopKHeap results;
+    private final DataObject[] objects;
 
     public CkQuery(int id, List<String> keywords, double x, double y, int k, long st, long et) {
         super(id, keywords, st, et);
         this.location = new Point(x, y);
         this.sr = Double.MAX_VALUE;
         this.k = k;
+        this.results = new TopKHeap(k);
+        this.objects = new DataObject[k];
+    }
+
+    /**
+     * Drop the current top-k and reset the search range.
+     */
+    public void clearResults() {
+        Arrays.fill(objects, null);
+        results.clear();
+        sr = Double.MAX_VALUE;
+    }
+
+    /**
+     * Replace the current top-k and recompute the search range.
+     *
+     * @param objects Top-k objects of the query, e.g. from a kNN search.
+     */
+    public void setResults(Collection<DataObject> objects) {
+        clearResults();
+        for (DataObject object : objects)
+            offer(object);
+    }
+
+    /**
+     * Offer a new matching object to the top-k. The object must not already be in the top-k.
+     *
+     * @param object Object matching the keywords and search range of the query.
+     * @return True if the object entered the top-k.
+     */
+    public boolean offer(DataObject object) {
+        if (!containsPoint(object.location))
+            return false;
+        return offer(object, distSqr(object.location));
+    }
+
+    /**
+     * Offer a matching object whose squared distance is already known. Ties with the current k-th object keep the
+     * older one.
+     *
+     * @param object  Object matching the keywords of the query.
+     * @param distSqr Squared distance of the object to the query location.
+     * @return True if the object entered the top-k.
+     */
+    public boolean offer(DataObject object, double distSqr) {
+        int slot = results.offerSlot(distSqr);
+        if (slot < 0)
+            return false;
+
+        objects[slot] = object;
+        if (results.isFull())
+            sr = Math.sqrt(results.bound());
+        return true;
+    }
+
+    /**
+     * Is the object part of the current top-k.
+     *
+     * @param object Object to look for.
+     * @return True if the object is in the top-k.
+     */
+    public boolean inResults(DataObject object) {
+        for (int i = 0; i < results.size(); i++) {
+            if (object.equals(objects[results.handle(i)]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Current top-k of the query.
+     *
+     * @return Copy of the top-k objects ordered by ascending distance.
+     */
+    public List<DataObject> getResults() {
+        List<DataObject> out = new ArrayList<>(results.size());
+        for (int i : results.sortedOrder())
+            out.add(objects[results.handle(i)]);
+        return out;
+    }
+
+    private double distSqr(Point p) {
+        return (p.x - location.x) * (p.x - location.x) + (p.y - location.y) * (p.y - location.y);
     }
 
     public boolean containsPoint(Point p) {
@@ -23,7 +117,9 @@ public class CkQuery extends Query {
                 p.y >= location.y - sr && p.y <= location.y + sr;
 
         if (isInRectangle) {
-            return (p.x - location.x) * (p.x - location.x) + (p.y - location.y) * (p.y - location.y) <= sr * sr;
+            double distSqr = distSqr(p);
+            // sr is the rounded root of the k-th object's squared distance, so squaring it back may exclude that object
+            return distSqr <= sr * sr || Math.sqrt(distSqr) <= sr;
         }
         return false;
     }
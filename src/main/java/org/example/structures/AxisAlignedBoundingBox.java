@@ -34,10 +34,14 @@ public class AxisAlignedBoundingBox extends Point implements Comparable<Object>
     }
 
     public boolean containsPoint(Point p) {
-        if (p.x >= maxX) return false;
-        if (p.x < minX) return false;
-        if (p.y >= maxY) return false;
-        return !(p.y < minY);
+        return containsPoint(p.x, p.y);
+    }
+
+    public boolean containsPoint(double x, double y) {
+        if (x >= maxX) return false;
+        if (x < minX) return false;
+        if (y >= maxY) return false;
+        return !(y < minY);
     }
 
     /**
@@ -1,48 +1,80 @@
 package org.example.structures;
 
 import org.example.base.Query;
+import org.example.helpers.IntArrayList;
 
-import java.util.*;
+import java.util.Arrays;
 
 public class Block {
-    String minw;
-    String maxw;
-    private final LinkedList<Query> queries;
-    private final LinkedList<String> keywords;
+    int minw = -1;
+    int maxw = -1;
+    // AND of the keyword signatures of the queries: an object lacking one of its bits matches no query of the block
+    long signature = -1L;
+    // The order of the queries within a block does not matter, so removals swap the last query in
+    private Query[] queries;
+    private int size;
+    private final IntArrayList keywords;
 
     public Block() {
-        this.queries = new LinkedList<>();
-        this.keywords = new LinkedList<>();
+        this.queries = new Query[4];
+        this.keywords = new IntArrayList();
     }
 
     public Block(Query query) {
-        if (query.keywords.size() > 2) {
-            this.minw = query.keywords.get(2);
-            this.maxw = query.keywords.get(query.keywords.size() - 1);
+        if (query.terms.length > 2) {
+            this.minw = query.terms[2];
+            this.maxw = query.terms[query.terms.length - 1];
         }
 
-        this.keywords = new LinkedList<>();
-        if (query.keywords.size() > 2) {
-            this.keywords.add(query.keywords.get(2));
+        this.keywords = new IntArrayList();
+        if (query.terms.length > 2) {
+            this.keywords.add(query.terms[2]);
         }
 
-        this.queries = new LinkedList<>();
-        this.queries.add(query);
+        this.queries = new Query[4];
+        this.queries[size++] = query;
+        this.signature = query.signature;
     }
 
     public void add(Query query) {
-        queries.add(query);
+        if (size == queries.length)
+            queries = Arrays.copyOf(queries, size * 2);
+        queries[size++] = query;
+        signature &= query.signature;
     }
 
-    public void add(int i, Query query) {
-        queries.add(i, query);
+    /**
+     * Remove the query from the block.
+     *
+     * @param query Query to be removed.
+     * @return True if the query was in the block.
+     */
+    public boolean remove(Query query) {
+        for (int i = 0; i < size; i++) {
+            if (query.equals(queries[i])) {
+                queries[i] = queries[--size];
+                queries[size] = null;
+                signature = -1L;
+                for (int j = 0; j < size; j++)
+                    signature &= queries[j].signature;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Query at the position in the block, between 0 and size() - 1.
+     */
+    public Query get(int i) {
+        return queries[i];
     }
 
-    public double probBVbr(Map<String, Double> probWV) {
+    public double probBVbr(double[] probWV) {
         double max = 0;
         double sum = 0;
-        for (String wj : keywords) {
-            double prob = probWV.get(wj);
+        for (int j = 0; j < keywords.size(); j++) {
+            double prob = probWV[keywords.get(j)];
             if (prob > max)
                 max = prob;
 
@@ -54,11 +86,11 @@ public class Block {
         return Math.min(out, 1);
     }
 
-    public double probBVbr_c(Map<String, Double> probWV, String w3) {
-        double max = probWV.get(w3);
+    public double probBVbr_c(double[] probWV, int w3) {
+        double max = probWV[w3];
         double sum = max;
-        for (String wj : keywords) {
-            double prob = probWV.get(wj);
+        for (int j = 0; j < keywords.size(); j++) {
+            double prob = probWV[keywords.get(j)];
             if (prob > max)
                 max = prob;
 
@@ -68,23 +100,20 @@ public class Block {
         return Math.min(out, 1);
     }
 
-    public LinkedList<String> getKeywords() {
+    public IntArrayList getKeywords() {
         return keywords;
     }
-    public LinkedList<Query> getQueries() {
-        return queries;
-    }
 
     public int size() {
-        return queries.size();
+        return size;
     }
 
     @Override
     public String toString() {
         return "Block{" +
-                ", minw='" + minw + '\'' +
-                ", maxw='" + maxw + '\'' +
-                ", queries=" + queries +
+                ", minw=" + minw +
+                ", maxw=" + maxw +
+                ", queries=" + Arrays.toString(Arrays.copyOf(queries, size)) +
                 ", keywords=" + keywords +
                 '}';
     }
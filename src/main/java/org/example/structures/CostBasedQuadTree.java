@@ -1,22 +1,53 @@
 package org.example.structures;
 
-import org.example.CkQST;
+import org.example.CkQSTConfig;
 import org.example.base.BaseQuadTree;
 import org.example.base.DataObject;
 import org.example.base.Point;
 import org.example.base.Query;
+import org.example.helpers.IndexedLongHeap;
+import org.example.helpers.IntArrayList;
+import org.example.helpers.LongIntHashMap;
+import org.example.helpers.SpatialHelper;
+import org.example.metrics.IndexMetrics;
 import org.example.models.CkQuery;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
+    private static final ThreadLocal<MatchBuffer> MATCHES = ThreadLocal.withInitial(MatchBuffer::new);
+
     private final CostBasedQuadNode root;
+    // Slots of the queries by expiry time
+    private final IndexedLongHeap expiryQueue = new IndexedLongHeap();
+    // Slot + 1 of every query of the tree, keyed by its ID, so a query can be removed through any instance equal to it
+    private final LongIntHashMap slots = new LongIntHashMap();
+    // Slots of the removed queries, handed out again before new ones
+    private final IntArrayList freeSlots = new IntArrayList();
+    private int numSlots;
+    // Registered instance of each query, by slot
+    private Query[] queries = new Query[16];
+    /**
+     * Node each query was placed in, by slot: the textual index of the node or the ones of its four children hold the
+     * query. A query is removed through its node, as it can be placed outside the path to its location, e.g. at the
+     * root when the location is outside the space.
+     */
+    private CostBasedQuadNode[] placements = new CostBasedQuadNode[16];
 
     public CostBasedQuadTree(double x, double y, double width, double height, int maxHeight) {
-        Point point = new Point(x, y);
-        AxisAlignedBoundingBox aabb = new AxisAlignedBoundingBox(point, width, height);
-        CostBasedQuadNode.maxHeight = maxHeight;
-        root = new CostBasedQuadNode(aabb);
+        this(new CkQSTConfig(x, y, width, height, maxHeight));
+    }
+
+    /**
+     * Query index over the space of the configuration, placing the queries with its cost weights.
+     */
+    public CostBasedQuadTree(CkQSTConfig config) {
+        Point point = new Point(config.x, config.y);
+        AxisAlignedBoundingBox aabb = new AxisAlignedBoundingBox(point, config.width, config.height);
+        root = new CostBasedQuadNode(aabb, new Arrivals(config));
     }
 
     @Override
@@ -26,28 +57,277 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
 
     @Override
     public Collection<Query> search(DataObject dataObject) {
-        Set<Query> results = new HashSet<>();
-        this.root.search(dataObject, results);
+        return search(dataObject, true);
+    }
+
+    /**
+     * Find the queries matching with an object.
+     *
+     * @param dataObject Object to be matched.
+     * @param arrival    Whether the object is a new arrival counted in the arrival rates of the nodes, false e.g. for
+     *                   an object evicted from the window.
+     * @return Matched queries.
+     */
+    public Collection<Query> search(DataObject dataObject, boolean arrival) {
+        MatchBuffer results = MATCHES.get();
+        search(dataObject, arrival, results);
+        return results.toList();
+    }
+
+    /**
+     * Find the queries matching with an object without allocating.
+     *
+     * @param dataObject Object to be matched.
+     * @param arrival    Whether the object is a new arrival counted in the arrival rates of the nodes.
+     * @param results    Buffer cleared and then filled with the matched queries.
+     */
+    public void search(DataObject dataObject, boolean arrival, MatchBuffer results) {
+        results.clear();
+        this.root.search(dataObject, results, arrival);
+    }
+
+    /**
+     * Match a batch of objects with the queries. The batch is sorted by Morton code, so the objects falling into each
+     * node form a contiguous range and the tree is descended once for the whole batch.
+     *
+     * @param objects Batch of streamed objects.
+     * @return Matched objects of each matched query, in Morton order.
+     */
+    public Map<Query, List<DataObject>> search(List<DataObject> objects) {
+        Map<Query, List<DataObject>> results = new LinkedHashMap<>();
+        this.root.search(objects, results);
         return results;
     }
 
     @Override
     public boolean insert(Query object) {
-        return this.root.insert(object);
+        if (slots.get(object.id) != 0)
+            return false; // a query with this ID is already registered
+
+        int slot = assignSlot(object);
+        if (!place(slot)) {
+            freeSlot(slot);
+            return false;
+        }
+        expiryQueue.add(slot, object.et);
+        return true;
     }
 
+    /**
+     * Remove the query with the ID of the given one.
+     *
+     * @param object Query equal to the registered one.
+     * @return True if the query was registered.
+     */
     @Override
     public boolean remove(Query object) {
-        return this.root.remove(object);
+        int slot = slots.get(object.id) - 1;
+        if (slot < 0 || !unplace(slot))
+            return false;
+        freeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Whether a query with the ID of the given one is registered.
+     */
+    public boolean contains(Query object) {
+        return slots.get(object.id) != 0;
+    }
+
+    private int assignSlot(Query query) {
+        int slot = freeSlots.isEmpty() ? numSlots++ : freeSlots.removeLast();
+        if (slot >= queries.length) {
+            queries = Arrays.copyOf(queries, queries.length * 2);
+            placements = Arrays.copyOf(placements, queries.length);
+        }
+        queries[slot] = query;
+        slots.add(query.id, slot + 1);
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        expiryQueue.remove(slot);
+        slots.add(queries[slot].id, -(slot + 1));
+        queries[slot] = null;
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Place the query of a slot into the tree.
+     */
+    private boolean place(int slot) {
+        CostBasedQuadNode node = root.place(queries[slot]);
+        placements[slot] = node;
+        return node != null;
+    }
+
+    /**
+     * Remove the query of a slot from the node it was placed in, keeping the slot.
+     */
+    private boolean unplace(int slot) {
+        CostBasedQuadNode node = placements[slot];
+        if (node == null || !node.removePlaced(queries[slot]))
+            return false;
+        placements[slot] = null;
+        return true;
+    }
+
+    /**
+     * Place an already inserted query again, e.g. after its search range changed.
+     *
+     * @param object Query to be placed again.
+     * @return True if the query was found and placed again.
+     */
+    public boolean relocate(Query object) {
+        int slot = slots.get(object.id) - 1;
+        if (slot < 0 || !unplace(slot))
+            return false;
+        if (place(slot))
+            return true;
+        freeSlot(slot);
+        return false;
+    }
+
+    /**
+     * Remove all the queries which expired by the given time.
+     *
+     * @param now Current time of the stream.
+     * @return Queries with et before now, which were still in the tree.
+     */
+    public List<Query> expire(long now) {
+        List<Query> expired = new ArrayList<>();
+        while (!expiryQueue.isEmpty() && expiryQueue.peekPriority() < now) {
+            int slot = expiryQueue.peek();
+            if (unplace(slot))
+                expired.add(queries[slot]);
+            freeSlot(slot);
+        }
+        return expired;
+    }
+
+    /**
+     * Add the queries of the tree to the list, each one once.
+     */
+    void collectQueries(List<CkQuery> out) {
+        root.collectQueries(Collections.newSetFromMap(new IdentityHashMap<>()), out);
+    }
+
+    /**
+     * Write the structure of the tree to a snapshot: int max height, then the nodes in pre-order, a node being its
+     * inverted index followed by byte 0 for a leaf or byte 1 and the children for an inner node.
+     */
+    void writeSnapshot(IndexSnapshot.Writer out) throws IOException {
+        out.writeInt(root.maxHeight);
+        root.writeSnapshot(out);
+    }
+
+    void readSnapshot(IndexSnapshot.Reader in, CkQuery[] queries) throws IOException {
+        if (!root.isLeaf() || root.textualIndex.countQueries != 0)
+            throw new IllegalStateException("A snapshot can only be restored into an empty tree!");
+        if (in.readInt() != root.maxHeight)
+            throw new IllegalArgumentException("Snapshot of a tree of another height!");
+
+        root.readSnapshot(in);
+        for (CkQuery query : queries) {
+            if (slots.get(query.id) != 0)
+                throw new IllegalArgumentException("Query " + query.id + " is twice in the snapshot!");
+            expiryQueue.add(assignSlot(query), query.et);
+        }
+        root.collectPlacements(null, slots, placements);
+    }
+
+    /**
+     * Configuration and arrival clock shared by the nodes of a tree, the clock ticking once per object routed into
+     * the root.
+     */
+    private static class Arrivals {
+        // Number of arrivals between two decays of the arrival rates
+        private static final int EPOCH_BITS = 10;
+        // Weight of the share of its area in the arrival share of a node
+        private static final double PRIOR = 1;
+
+        private final CkQSTConfig config;
+        private final AtomicLong ticks = new AtomicLong();
+        private CostBasedQuadNode root;
+
+        private Arrivals(CkQSTConfig config) {
+            this.config = config;
+        }
+
+        private long epoch() {
+            return ticks.get() >>> EPOCH_BITS;
+        }
     }
 
     protected static class CostBasedQuadNode extends BaseQuadNode<DataObject, Query> {
-        protected static int maxHeight = 0;
-        protected OrderedInvertedIndex textualIndex = new OrderedInvertedIndex();
+        protected final int maxHeight;
+        protected final OrderedInvertedIndex textualIndex;
         protected int height = 1;
+        // Objects routed into the node, only counted when metrics are enabled
+        private final LongAdder routed = IndexMetrics.ENABLED ? new LongAdder() : null;
 
-        protected CostBasedQuadNode(AxisAlignedBoundingBox aabb) {
+        // Exponentially decayed count of the objects routed into the node, as of the arrival epoch. Concurrent
+        // matching workers may lose some updates, which only adds noise to the estimate
+        private final Arrivals arrivals;
+        private volatile double arrivalRate;
+        private volatile long arrivalEpoch;
+
+        private CostBasedQuadNode(AxisAlignedBoundingBox aabb, Arrivals arrivals) {
             super(aabb);
+            this.arrivals = arrivals;
+            this.maxHeight = arrivals.config.maxHeight;
+            this.textualIndex = new OrderedInvertedIndex(arrivals.config.thetaU);
+            if (arrivals.root == null)
+                arrivals.root = this;
+        }
+
+        /**
+         * Count objects routed into the node in its arrival rate.
+         *
+         * @param count Number of objects.
+         */
+        private void observe(int count) {
+            if (height == 1)
+                arrivals.ticks.addAndGet(count);
+            long epoch = arrivals.epoch();
+            arrivalRate = decayedRate(epoch) + count;
+            arrivalEpoch = epoch;
+        }
+
+        private double decayedRate(long epoch) {
+            double rate = arrivalRate;
+            long elapsed = epoch - arrivalEpoch;
+            if (elapsed <= 0)
+                return rate;
+            return rate * Math.pow(2, -(double) (elapsed << Arrivals.EPOCH_BITS) / arrivals.config.arrivalHalfLife);
+        }
+
+        /**
+         * Expected number of objects falling into the node per object of the stream, i.e. the decayed arrival rate of
+         * the node over the one of the root. The share of the area of the node serves as a prior until enough objects
+         * have arrived.
+         */
+        private double arrivalShare() {
+            if (this == arrivals.root)
+                return 1;
+            long epoch = arrivals.epoch();
+            double areaShare = 1d / (1L << 2 * (height - 1));
+            return (decayedRate(epoch) + Arrivals.PRIOR * areaShare) /
+                    (arrivals.root.decayedRate(epoch) + Arrivals.PRIOR);
+        }
+
+        private void countRouted(int count) {
+            routed.add(count);
+            IndexMetrics.objectsRouted(height, count);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return routed == null ? aabb.toString() : aabb + ", routed=" + routed.sum();
         }
 
         /**
@@ -55,17 +335,24 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
          */
         @Override
         public boolean insert(Query query) {
+            return place(query) != null;
+        }
+
+        /**
+         * Insert a query into the textual index of this node, of its four children or of a descendant.
+         *
+         * @param query Query to be placed.
+         * @return Node whose textual index or whose children's hold the query, null if it does not belong here.
+         */
+        private CostBasedQuadNode place(Query query) {
             // Ignore objects which do not belong in this quad tree
             if (!aabb.containsQuery(query) && height > 1)
-                return false; // object cannot be added
+                return null; // object cannot be added
 
             if (height == maxHeight) {
                 textualIndex.insertQueryPL(query);
-                return true;
+                return this;
             } else if (isMinimal(query)) {
-                if (query.id == 4188) {
-                    System.out.println("Minimal at " + height);
-                }
                 double nodeVCost = verifyCost(query);
                 double nodeUCost = updateCost(query);
 
@@ -83,28 +370,25 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
                 childrenUCost += ((CostBasedQuadNode) southEast).updateCost(query);
                 childrenUCost += ((CostBasedQuadNode) southWest).updateCost(query);
 
-                if (childrenVCost + CkQST.thetaU * childrenUCost < nodeVCost + CkQST.thetaU * nodeUCost) {
+                double thetaU = arrivals.config.thetaU;
+                if (childrenVCost + thetaU * childrenUCost < nodeVCost + thetaU * nodeUCost) {
                     ((CostBasedQuadNode) northEast).textualIndex.insertQueryPL(query);
                     ((CostBasedQuadNode) northWest).textualIndex.insertQueryPL(query);
                     ((CostBasedQuadNode) southEast).textualIndex.insertQueryPL(query);
                     ((CostBasedQuadNode) southWest).textualIndex.insertQueryPL(query);
-                    return true;
+                    return this;
                 }
 
                 textualIndex.insertQueryPL(query);
-                return true;
+                return this;
             }
 
             // Otherwise, we need to subdivide then add the point to whichever node will accept it
             if (isLeaf())
                 subdivide();
-            return insertIntoChildren(query);
+            return placeIntoChildren(query);
         }
 
-        @Override
-        public boolean remove(Query o) {
-            throw new RuntimeException("Not implemented!");
-        }
 
         private boolean isMinimal(Query q) {
             if (aabb.quadContainsQuery(q, 0)) return false;
@@ -114,12 +398,12 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
         }
 
         private double verifyCost(Query q) {
-            double num_o_N = 1; // the number of objects falling to this node in a unit time
+            double num_o_N = arrivalShare(); // the number of objects falling to this node per streamed object
 
             double p_V_q = textualIndex.verifyProb(q);
 
             double e_V_q = 1;
-            if (q.keywords.size() > 2) {
+            if (q.terms.length > 2) {
                 e_V_q = textualIndex.estVerifyCost(q);
             }
 
@@ -135,63 +419,112 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
             double w = aabb.width / 2d;
 
             AxisAlignedBoundingBox aabbNW = new AxisAlignedBoundingBox(aabb, w, h);
-            northWest = new CostBasedQuadNode(aabbNW);
+            northWest = new CostBasedQuadNode(aabbNW, arrivals);
             ((CostBasedQuadNode) northWest).height = height + 1;
 
             Point xyNE = new Point(aabb.x + w, aabb.y);
             AxisAlignedBoundingBox aabbNE = new AxisAlignedBoundingBox(xyNE, w, h);
-            northEast = new CostBasedQuadNode(aabbNE);
+            northEast = new CostBasedQuadNode(aabbNE, arrivals);
             ((CostBasedQuadNode) northEast).height = height + 1;
 
             Point xySW = new Point(aabb.x, aabb.y + h);
             AxisAlignedBoundingBox aabbSW = new AxisAlignedBoundingBox(xySW, w, h);
-            southWest = new CostBasedQuadNode(aabbSW);
+            southWest = new CostBasedQuadNode(aabbSW, arrivals);
             ((CostBasedQuadNode) southWest).height = height + 1;
 
             Point xySE = new Point(aabb.x + w, aabb.y + h);
             AxisAlignedBoundingBox aabbSE = new AxisAlignedBoundingBox(xySE, w, h);
-            southEast = new CostBasedQuadNode(aabbSE);
+            southEast = new CostBasedQuadNode(aabbSE, arrivals);
             ((CostBasedQuadNode) southEast).height = height + 1;
         }
 
-        private boolean insertIntoChildren(Query q) {
+        private void collectQueries(Set<Query> seen, List<CkQuery> out) {
+            textualIndex.collectQueries(seen, out);
+            if (!isLeaf()) {
+                ((CostBasedQuadNode) northWest).collectQueries(seen, out);
+                ((CostBasedQuadNode) northEast).collectQueries(seen, out);
+                ((CostBasedQuadNode) southWest).collectQueries(seen, out);
+                ((CostBasedQuadNode) southEast).collectQueries(seen, out);
+            }
+        }
+
+        private void writeSnapshot(IndexSnapshot.Writer out) throws IOException {
+            textualIndex.writeSnapshot(out);
+            if (isLeaf()) {
+                out.writeByte(0);
+            } else {
+                out.writeByte(1);
+                ((CostBasedQuadNode) northWest).writeSnapshot(out);
+                ((CostBasedQuadNode) northEast).writeSnapshot(out);
+                ((CostBasedQuadNode) southWest).writeSnapshot(out);
+                ((CostBasedQuadNode) southEast).writeSnapshot(out);
+            }
+        }
+
+        private void readSnapshot(IndexSnapshot.Reader in) throws IOException {
+            textualIndex.readSnapshot(in);
+            if (in.readByte() == 1) {
+                subdivide();
+                ((CostBasedQuadNode) northWest).readSnapshot(in);
+                ((CostBasedQuadNode) northEast).readSnapshot(in);
+                ((CostBasedQuadNode) southWest).readSnapshot(in);
+                ((CostBasedQuadNode) southEast).readSnapshot(in);
+            }
+        }
+
+        private CostBasedQuadNode placeIntoChildren(Query q) {
             // A point can only live in one child.
-            if (northWest.insert(q)) return true;
-            if (northEast.insert(q)) return true;
-            if (southWest.insert(q)) return true;
-            return southEast.insert(q);
+            CostBasedQuadNode node = ((CostBasedQuadNode) northWest).place(q);
+            if (node == null) node = ((CostBasedQuadNode) northEast).place(q);
+            if (node == null) node = ((CostBasedQuadNode) southWest).place(q);
+            if (node == null) node = ((CostBasedQuadNode) southEast).place(q);
+            return node;
         }
 
         /**
-         * Remove object from tree.
+         * Remove a query placed in this node, from its textual index or from the ones of its four children.
          *
-         * @param q Query object to remove from tree.
-         * @return True if successfully removed.
+         * @return True if the query was found.
          */
-        protected boolean remove(CkQuery q) {
-            // If not in this AABB, don't do anything
-            if (!aabb.containsPoint(q.location))
-                return false;
-
-            // If in this AABB and in this node
-            if (textualIndex.remove(q))
+        private boolean removePlaced(Query query) {
+            if (textualIndex.remove(query))
                 return true;
+            if (isLeaf())
+                return false;
+            boolean removed = ((CostBasedQuadNode) northWest).textualIndex.remove(query);
+            removed |= ((CostBasedQuadNode) northEast).textualIndex.remove(query);
+            removed |= ((CostBasedQuadNode) southWest).textualIndex.remove(query);
+            removed |= ((CostBasedQuadNode) southEast).textualIndex.remove(query);
+            return removed;
+        }
 
-            // If this node has children
+        /**
+         * Find the node each query of a restored subtree was placed in. A query held by a single textual index was
+         * placed in its node, one held by the four children of a node was placed in that node.
+         *
+         * @param parent     Parent of this node, null for the root.
+         * @param slots      Slot + 1 of the queries by ID.
+         * @param placements Nodes of the queries by slot, to be filled.
+         */
+        private void collectPlacements(CostBasedQuadNode parent, LongIntHashMap slots,
+                                       CostBasedQuadNode[] placements) {
+            List<CkQuery> queries = new ArrayList<>();
+            textualIndex.collectQueries(Collections.newSetFromMap(new IdentityHashMap<>()), queries);
+            for (CkQuery query : queries) {
+                int slot = slots.get(query.id) - 1;
+                placements[slot] = placements[slot] == null ? this : parent;
+            }
             if (!isLeaf()) {
-                // If in this AABB but in a child branch
-                return removeFromChildren(q);
+                ((CostBasedQuadNode) northWest).collectPlacements(this, slots, placements);
+                ((CostBasedQuadNode) northEast).collectPlacements(this, slots, placements);
+                ((CostBasedQuadNode) southWest).collectPlacements(this, slots, placements);
+                ((CostBasedQuadNode) southEast).collectPlacements(this, slots, placements);
             }
-
-            return false;
         }
 
-        private boolean removeFromChildren(CkQuery q) {
-            // A point can only live in one child.
-            if (northWest.remove(q)) return true;
-            if (northEast.remove(q)) return true;
-            if (southWest.remove(q)) return true;
-            return southEast.remove(q);
+        @Override
+        public boolean remove(Query query) {
+            throw new RuntimeException("Not implemented!");
         }
 
         /**
@@ -202,18 +535,103 @@ public class CostBasedQuadTree extends BaseQuadTree<DataObject, Query> {
          */
         @Override
         protected void search(DataObject object, Collection<Query> results) {
+            MatchBuffer matches = MATCHES.get();
+            matches.clear();
+            search(object, matches, true);
+            for (int i = 0; i < matches.size(); i++)
+                results.add(matches.get(i));
+        }
+
+        /**
+         * Find the queries matching with an object in this node and in its descendants.
+         *
+         * @param object  Object to be matched with the queries contained in this node.
+         * @param results Queries matching with the streamed object.
+         * @param arrival Whether the object is counted in the arrival rates.
+         */
+        private void search(DataObject object, MatchBuffer results, boolean arrival) {
             // Automatically abort if the range does not collide with this quad
             if (!aabb.containsPoint(object.location))
                 return;
+            if (arrival)
+                observe(1);
+            if (IndexMetrics.ENABLED)
+                countRouted(1);
 
             textualIndex.searchObject(object, results);
 
             // Otherwise, add the points from the children
             if (!isLeaf()) {
-                ((CostBasedQuadNode) northWest).search(object, results);
-                ((CostBasedQuadNode) northEast).search(object, results);
-                ((CostBasedQuadNode) southWest).search(object, results);
-                ((CostBasedQuadNode) southEast).search(object, results);
+                ((CostBasedQuadNode) northWest).search(object, results, arrival);
+                ((CostBasedQuadNode) northEast).search(object, results, arrival);
+                ((CostBasedQuadNode) southWest).search(object, results, arrival);
+                ((CostBasedQuadNode) southEast).search(object, results, arrival);
+            }
+        }
+
+        /**
+         * Match a batch of objects falling into this node, sorting it by Morton code first.
+         *
+         * @param objects Batch of objects.
+         * @param results Matched objects of each matched query.
+         */
+        protected void search(List<DataObject> objects, Map<Query, List<DataObject>> results) {
+            int depth = maxHeight - height;
+            DataObject[] batch = new DataObject[objects.size()];
+            long[] codes = new long[objects.size()];
+            int n = 0;
+            for (DataObject object : objects) {
+                if (!aabb.containsPoint(object.location))
+                    continue;
+                batch[n] = object;
+                codes[n] = SpatialHelper.getMortonCode(object.location.x, object.location.y, aabb, depth);
+                n++;
+            }
+            SpatialHelper.sortByMortonCode(batch, codes, 0, n);
+            search(batch, codes, 0, n, results, MATCHES.get());
+        }
+
+        /**
+         * Match the range of a Morton sorted batch falling into this node with the queries of this node and of its
+         * descendants.
+         *
+         * @param objects Batch of objects sorted by Morton code.
+         * @param codes   Morton codes of the objects at the max height.
+         * @param from    First object of the range falling into this node.
+         * @param to      Index after the last object of the range.
+         * @param results Matched objects of each matched query.
+         * @param matches Scratch buffer for the matches of a single object.
+         */
+        protected void search(DataObject[] objects, long[] codes, int from, int to,
+                              Map<Query, List<DataObject>> results, MatchBuffer matches) {
+            if (from >= to)
+                return;
+            observe(to - from);
+            if (IndexMetrics.ENABLED)
+                countRouted(to - from);
+
+            // Only the descent is shared: each object of the range still probes the textual index of the node
+            for (int i = from; i < to; i++) {
+                matches.clear();
+                textualIndex.searchObject(objects[i], matches);
+                for (int j = 0; j < matches.size(); j++)
+                    results.computeIfAbsent(matches.get(j), q -> new ArrayList<>()).add(objects[i]);
+            }
+
+            if (!isLeaf()) {
+                // Split the range by the quadrant of the objects at the depth of the children
+                int shift = 2 * (maxHeight - 1 - height);
+                int nw = from;
+                while (nw < to && ((codes[nw] >>> shift) & 3) == 0) nw++;
+                int ne = nw;
+                while (ne < to && ((codes[ne] >>> shift) & 3) == 1) ne++;
+                int sw = ne;
+                while (sw < to && ((codes[sw] >>> shift) & 3) == 2) sw++;
+
+                ((CostBasedQuadNode) northWest).search(objects, codes, from, nw, results, matches);
+                ((CostBasedQuadNode) northEast).search(objects, codes, nw, ne, results, matches);
+                ((CostBasedQuadNode) southWest).search(objects, codes, ne, sw, results, matches);
+                ((CostBasedQuadNode) southEast).search(objects, codes, sw, to, results, matches);
             }
         }
 
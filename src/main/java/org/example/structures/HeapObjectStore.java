@@ -0,0 +1,78 @@
+package org.example.structures;
+
+import org.example.base.DataObject;
+
+import java.util.Arrays;
+
+/**
+ * Object store on the heap, keeping the locations in primitive columns next to the objects.
+ */
+public class HeapObjectStore extends ObjectStore {
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private DataObject[] objects = new DataObject[16];
+    private int size;
+    private int live;
+
+    @Override
+    public int add(DataObject object) {
+        if (size == objects.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        xs[size] = object.location.x;
+        ys[size] = object.location.y;
+        objects[size] = object;
+        live++;
+        return size++;
+    }
+
+    @Override
+    void removeLast() {
+        objects[--size] = null;
+        live--;
+    }
+
+    @Override
+    void kill(int handle) {
+        objects[handle] = null;
+        live--;
+    }
+
+    @Override
+    public double x(int handle) {
+        return xs[handle];
+    }
+
+    @Override
+    public double y(int handle) {
+        return ys[handle];
+    }
+
+    @Override
+    public int id(int handle) {
+        return objects[handle].id;
+    }
+
+    @Override
+    public DataObject object(int handle) {
+        return objects[handle];
+    }
+
+    @Override
+    public int size() {
+        return live;
+    }
+
+    @Override
+    int handles() {
+        return size;
+    }
+
+    @Override
+    boolean isLive(int handle) {
+        return objects[handle] != null;
+    }
+}
@@ -1,23 +1,53 @@
 package org.example.structures;
 
 import org.example.base.*;
-import org.example.helpers.EuclideanComparator;
+import org.example.helpers.LongIntHashMap;
 import org.example.helpers.SpatialHelper;
+import org.example.metrics.IndexMetrics;
 import org.example.models.*;
 
+import java.io.IOException;
 import java.util.*;
 
 
 public class IQuadTree extends BaseQuadTree<Query, DataObject> {
+    private static final ThreadLocal<SearchContext> CONTEXT = ThreadLocal.withInitial(SearchContext::new);
+
     private final AxisAlignedBoundingBox aabb;
-    private final HashMap<String, ILQuadNode> roots;
+    // Objects of the tree, the keyword trees hold their handles
+    private final ObjectStore store;
+    // Handle + 1 of every object of the tree, keyed by its ID
+    private final LongIntHashMap handles = new LongIntHashMap();
+    private ILQuadNode[] roots;
+    /**
+     * Number of objects of each keyword in every cell down to the maximum height, keyed by the Morton code of the
+     * cell. Used to check the signature of a cell in a single probe.
+     */
+    private LongIntHashMap[] cells;
+    private final int depth;
+    private final int capacity;
+    private final int maxTreeHeight;
 
     public IQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight) {
+        this(x, y, width, height, capacity, maxTreeHeight, new HeapObjectStore());
+    }
+
+    /**
+     * @param store Empty store the objects of the tree are kept in.
+     */
+    public IQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight,
+                     ObjectStore store) {
+        if (maxTreeHeight > 31)
+            throw new IllegalArgumentException("Morton codes support a max tree height of 31!");
+
         Point xyPoint = new Point(x, y);
         aabb = new AxisAlignedBoundingBox(xyPoint, width, height);
-        ILQuadNode.maxCapacity = capacity;
-        ILQuadNode.maxHeight = maxTreeHeight;
-        this.roots = new HashMap<>();
+        this.capacity = capacity;
+        this.maxTreeHeight = maxTreeHeight;
+        this.store = store;
+        this.roots = new ILQuadNode[16];
+        this.cells = new LongIntHashMap[16];
+        this.depth = maxTreeHeight - 1;
     }
 
     @Override
@@ -27,96 +57,300 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> {
 
     @Override
     public boolean insert(DataObject object) {
-        for (String keyword : object.keywords) {
-            if (roots.containsKey(keyword)) {
-                roots.get(keyword).insert(object);
-            } else {
-                ILQuadNode newNode = new ILQuadNode(aabb, keyword);
-                newNode.insert(object);
-                roots.put(keyword, newNode);
+        if (handles.get(object.id) != 0)
+            return false; // object is already in the tree
+
+        boolean inserted = false;
+        int handle = store.add(object);
+        double x = object.location.x;
+        double y = object.location.y;
+        long code = SpatialHelper.getMortonCode(x, y, aabb, depth);
+        for (int term : object.terms) {
+            if (getRoot(term) == null)
+                createRoot(term);
+            if (roots[term].insert(handle, x, y)) {
+                countCells(cells[term], code, 1);
+                inserted = true;
             }
         }
-        return true;
+        if (inserted)
+            handles.add(object.id, handle + 1);
+        else
+            store.removeLast();
+        return inserted;
     }
 
     @Override
     public boolean remove(DataObject object) {
-        for (String keyword : object.keywords) {
-            if (roots.containsKey(keyword))
-                roots.get(keyword).remove(object);
+        int handle = handles.get(object.id) - 1;
+        if (handle < 0)
+            return false;
+
+        double x = store.x(handle);
+        double y = store.y(handle);
+        long code = SpatialHelper.getMortonCode(x, y, aabb, depth);
+        for (int term : object.terms) {
+            ILQuadNode root = getRoot(term);
+            if (root != null && root.remove(handle, x, y))
+                countCells(cells[term], code, -1);
         }
+        handles.add(object.id, -(handle + 1));
+        store.kill(handle);
         return true;
     }
 
     @Override
     public Collection<DataObject> search(Query q) {
-        int k = -1;
+        SearchContext ctx = CONTEXT.get();
+        search(q, ctx);
+        return ctx.toList();
+    }
+
+    /**
+     * Search the kNN of the query using the scratch space of the given context.
+     *
+     * @param q   Query to search for.
+     * @param ctx Search context, which must not be shared by threads. Holds the top-k after the search.
+     */
+    public void search(Query q, SearchContext ctx) {
+        ctx.begin(q instanceof CkQuery ? ((CkQuery) q).k : 0);
+        searchInto(q, ctx);
+    }
+
+    /**
+     * Continue a kNN search into the top-k of the context. Objects already in the top-k bound the search, which lets
+     * several trees (e.g. the slices of a {@link WindowedIQuadTree}) share a single top-k.
+     *
+     * @param q   Query to search for.
+     * @param ctx Search context, holding the top-k found so far.
+     */
+    void searchInto(Query q, SearchContext ctx) {
         Point location = null;
         if (q instanceof CkQuery) {
-            k = ((CkQuery) q).k;
             location = ((CkQuery) q).location;
         }
-        BoundedPriorityQueue<DataObject> results = new BoundedPriorityQueue<>(
-                k,
-                new EuclideanComparator(location)
-        );
-        double lambda = Double.MAX_VALUE;
-        HashMap<Integer, Integer> hits = new HashMap<>();
-        DeltaComparator deltaComparator = new DeltaComparator(location);
-        PriorityQueue<ILQuadNode> H = new PriorityQueue<>(deltaComparator);    // Line 1
-        for (String keyword : q.keywords) {                     // Line 2
-            if (roots.containsKey(keyword)) {
-                H.add(roots.get(keyword));                      // Line 3
+        assert location != null;
+
+        if (IndexMetrics.ENABLED)
+            IndexMetrics.knnSearched();
+
+        // Squared distance of the k-th object found so far
+        double lambda = ctx.bound();
+
+        ctx.reset();                                            // Line 1
+        for (int term : q.terms) {                              // Line 2
+            ILQuadNode root = getRoot(term);
+            if (root != null) {
+                ctx.push(root, minDistSqr(root, location));     // Line 3
             } else
-                return results; // ILQuadTree doesn't have all the keywords
+                return; // ILQuadTree doesn't have all the keywords
         }
 
-        for (ILQuadNode e; (e = H.poll()) != null; ) {          // Line 4
-            if (!e.objects.isEmpty()) {                         // Line 6: e is a black node
+        while (!ctx.isFrontierEmpty()) {                        // Line 4
+            // The frontier is ordered by min distance, so no node left can hold a closer object
+            if (ctx.peekDist() >= lambda)
+                break;
+
+            ILQuadNode e = ctx.pop();
+            if (IndexMetrics.ENABLED)
+                IndexMetrics.nodePopped();
+            if (e.count > 0) {                                  // Line 6: e is a black node
                 boolean signCheck = true;
 
-                for (String kj : q.keywords) {                  // Line 8
-                    if (!kj.equals(e.keyword)) {
-                        if (roots.containsKey(kj)) {
-                            // Line 9: CheckSignature
-                            double other = roots.get(kj).getStatusByMorton(e.morton, 1);
-                            if (other == 0) {
-                                signCheck = false;
-                                break;
-                            }
-                        } else {
-                            signCheck = false;
-                            break;
-                        }
+                for (int kj : q.terms) {                        // Line 8
+                    // Line 9: CheckSignature, kj must have objects in the cell of e
+                    if (kj != e.term && cells[kj].get(e.morton) == 0) {
+                        signCheck = false;
+                        break;
                     }
                 }
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.signatureCheck(signCheck);
 
                 if (signCheck) {                                // Line 10
-                    for (DataObject o : e.objects) {
-                        int oHit = hits.getOrDefault(o.id, 0);
-                        oHit++;
-                        hits.put(o.id, oHit);
-                        if (oHit == q.keywords.size()) {
-                            results.add(o);
-                            if (results.isFull()) {
-                                assert results.peek() != null;
-                                assert location != null;
-                                lambda = SpatialHelper.getDistanceInBetween(location, results.peek().location);
-                            }
-                        }
+                    int[] handles = e.handles;
+                    double[] xs = e.xs;
+                    double[] ys = e.ys;
+                    double x = location.x;
+                    double y = location.y;
+                    for (int i = 0, n = e.count; i < n; i++) {
+                        double dx = (xs != null ? xs[i] : store.x(handles[i])) - x;
+                        double dy = (ys != null ? ys[i] : store.y(handles[i])) - y;
+                        double dist = dx * dx + dy * dy;
+                        // lambda never grows, so an object at lambda or farther is not counted in any keyword tree
+                        if (dist < lambda && ctx.hit(handles[i]) == q.terms.length &&
+                                ctx.offer(store, handles[i], dist))
+                            lambda = ctx.bound();
                     }
                 }
             } else if (!e.isLeaf()) {                           // Line 17: Non leaf node
-                for (ILQuadNode child : e.getChildren()) {
-                    double eMinDist = deltaComparator.getMinDist(child);
-                    if (!(child.isLeaf() && child.objects.isEmpty()) && eMinDist < lambda) { // Line 19
-                        H.add(child);                           // Line 20
-                    }
-                }
+                e.pushChildren(ctx, location, lambda);
+            }
+        }
+    }
+
+    /**
+     * Squared min distance from the location to the objects of the node: to the bounds of the objects of a leaf, or
+     * to the box of an inner node.
+     */
+    private static double minDistSqr(ILQuadNode node, Point location) {
+        double x = location.x;
+        double y = location.y;
+        double x_min, y_min, x_max, y_max;
+        if (node.count > 0) {
+            x_min = node.minX;
+            y_min = node.minY;
+            x_max = node.maxX;
+            y_max = node.maxY;
+        } else {
+            x_min = node.getAabb().x;
+            y_min = node.getAabb().y;
+            x_max = x_min + node.getAabb().width - 0.001;
+            y_max = y_min + node.getAabb().height - 0.001;
+        }
+
+        double dx = 0;
+        if (x < x_min) dx = x_min - x;
+        else if (x > x_max) dx = x - x_max;
+
+        double dy = 0;
+        if (y < y_min) dy = y_min - y;
+        else if (y > y_max) dy = y - y_max;
+
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Add delta to the object count of every cell on the path from the root to the cell of the Morton code.
+     *
+     * @param cellCounts Object counts of a keyword.
+     * @param code       Morton code of the object at the maximum height.
+     * @param delta      1 for an insert, -1 for a removal.
+     */
+    private void countCells(LongIntHashMap cellCounts, long code, int delta) {
+        for (int d = depth; d >= 0; d--, code >>>= 2)
+            cellCounts.add(code, delta);
+    }
+
+    private ILQuadNode getRoot(int term) {
+        return term < roots.length ? roots[term] : null;
+    }
+
+    private ILQuadNode createRoot(int term) {
+        if (term >= roots.length) {
+            roots = Arrays.copyOf(roots, Math.max(term + 1, roots.length * 2));
+            cells = Arrays.copyOf(cells, roots.length);
+        }
+        roots[term] = new ILQuadNode(aabb, term, capacity, maxTreeHeight, store);
+        cells[term] = new LongIntHashMap();
+        return roots[term];
+    }
+
+    /**
+     * Write the structure of the keyword trees to a snapshot:
+     * <pre>
+     * int depth, int size, int root count, then per root: int term, the nodes in pre-order,
+     * a node being byte 0, int object count, int[] object references for a leaf or byte 1 and the children for an
+     * inner node
+     * </pre>
+     * The cell counts are not written, they are counted again from the objects of the leaves.
+     */
+    void writeSnapshot(IndexSnapshot.Writer out) throws IOException {
+        out.writeInt(depth);
+        out.writeInt(store.size());
+        int numRoots = 0;
+        for (ILQuadNode root : roots) {
+            if (root != null)
+                numRoots++;
+        }
+        out.writeInt(numRoots);
+        for (int term = 0; term < roots.length; term++) {
+            if (roots[term] != null) {
+                out.writeInt(term);
+                writeNode(out, roots[term]);
+            }
+        }
+    }
+
+    private void writeNode(IndexSnapshot.Writer out, ILQuadNode node) throws IOException {
+        if (node.isLeaf()) {
+            out.writeByte(0);
+            out.writeInt(node.count);
+            for (int i = 0; i < node.count; i++)
+                out.writeObject(store.object(node.handles[i]));
+        } else {
+            out.writeByte(1);
+            for (ILQuadNode child : node.getChildren())
+                writeNode(out, child);
+        }
+    }
+
+    /**
+     * Restore the keyword trees from a snapshot.
+     *
+     * @param objects Objects of the tree in the order they were inserted.
+     */
+    void readSnapshot(IndexSnapshot.Reader in, List<DataObject> objects) throws IOException {
+        if (store.size() != 0)
+            throw new IllegalStateException("A snapshot can only be restored into an empty tree!");
+        if (in.readInt() != depth)
+            throw new IllegalArgumentException("Snapshot of a tree of another height!");
+        if (in.readInt() != objects.size())
+            throw new IllegalArgumentException("Snapshot of a tree of another size!");
+
+        // An object is referenced once per keyword tree, but stored once
+        for (DataObject object : objects) {
+            if (handles.get(object.id) != 0)
+                throw new IllegalArgumentException("Object " + object.id + " is twice in the tree of the snapshot!");
+            handles.add(object.id, store.add(object) + 1);
+        }
+        int numRoots = in.readInt();
+        for (int i = 0; i < numRoots; i++) {
+            int term = in.readInt();
+            readNode(in, createRoot(term), cells[term]);
+        }
+    }
+
+    private void readNode(IndexSnapshot.Reader in, ILQuadNode node, LongIntHashMap cellCounts) throws IOException {
+        if (in.readByte() == 0) {
+            int numObjects = in.readInt();
+            for (int i = 0; i < numObjects; i++) {
+                DataObject object = in.readObject();
+                int handle = handles.get(object.id) - 1;
+                if (handle < 0)
+                    throw new IllegalArgumentException("Object " + object.id + " is not in the tree of the snapshot!");
+                node.append(handle, object.location.x, object.location.y);
+                countCells(cellCounts, SpatialHelper.getMortonCode(object.location.x, object.location.y, aabb, depth),
+                        1);
             }
+        } else {
+            node.subdivide();
+            for (ILQuadNode child : node.getChildren())
+                readNode(in, child, cellCounts);
         }
+    }
 
-        return results;
+    /**
+     * Number of objects held by the tree.
+     *
+     * @return Count of inserted objects.
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Add the objects of the tree to the list in the order they were inserted.
+     */
+    void collectObjects(List<DataObject> out) {
+        store.collect(out);
+    }
+
+    /**
+     * Free the storage of the objects once the tree is dropped.
+     */
+    void release() {
+        store.release();
     }
 
     /**
@@ -125,98 +359,216 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> {
     @Override
     public String toString() {
         StringBuilder out = new StringBuilder();
-        for (Map.Entry<String, ILQuadNode> entry : roots.entrySet()) {
-            out.append(entry.getKey()).append(" :\n").append(TreePrinter.getString(entry.getValue(), "", true));
+        for (int term = 0; term < roots.length; term++) {
+            if (roots[term] != null)
+                out.append(term).append(" :\n").append(TreePrinter.getString(roots[term], "", true));
         }
         return out.toString();
     }
 
     public static class ILQuadNode extends BaseQuadNode<Query, DataObject> {
-        protected static int maxCapacity = 0;
-        protected static int maxHeight = 0;
-        public final String keyword;
-        public String morton = "";
-        protected List<DataObject> objects = new LinkedList<>();
+        protected final int maxCapacity;
+        protected final int maxHeight;
+        protected final ObjectStore store;
+        public final int term;
+        /**
+         * Morton code of the node, two bits per level below a leading 1 bit for the root.
+         */
+        public long morton = 1;
+        // Objects of a leaf as parallel columns: their handles in the store of the tree and their locations. The
+        // locations are only copied for a heap store, the ones of an off-heap store are read from the store
+        protected int[] handles;
+        protected double[] xs;
+        protected double[] ys;
+        protected int count;
+        // Bounds of the objects of a leaf, tighter than its box for the min distance of the search
+        protected double minX;
+        protected double minY;
+        protected double maxX;
+        protected double maxY;
         protected int height = 1;
         protected LinkedList<ILQuadNode> children;
 
-        public ILQuadNode(AxisAlignedBoundingBox aabb, String keyword) {
+        public ILQuadNode(AxisAlignedBoundingBox aabb, int term, int maxCapacity, int maxHeight, ObjectStore store) {
             super(aabb);
-            this.keyword = keyword;
+            this.term = term;
+            this.maxCapacity = maxCapacity;
+            this.maxHeight = maxHeight;
+            this.store = store;
         }
 
         @Override
         public boolean insert(DataObject o) {
+            throw new RuntimeException("Not implemented!");
+        }
+
+        /**
+         * Insert an object of the store.
+         *
+         * @param handle Handle of the object.
+         * @param x      X coordinate of the object.
+         * @param y      Y coordinate of the object.
+         * @return True if successfully inserted.
+         */
+        public boolean insert(int handle, double x, double y) {
             // Ignore objects which do not belong in this quad tree
-            if (!aabb.containsPoint(o.location) || (isLeaf() && objects.contains(o)))
+            if (!aabb.containsPoint(x, y))
                 return false; // object cannot be added
 
             // If there is space in this quad tree, add the object here
-            if ((height == maxHeight) || (isLeaf() && objects.size() < maxCapacity)) {
-                objects.add(o);
+            if ((height == maxHeight) || (isLeaf() && count < maxCapacity)) {
+                append(handle, x, y);
                 return true;
             }
 
             // Otherwise, we need to subdivide then add the point to whichever node will accept it
             if (isLeaf() && height < maxHeight)
                 subdivide();
-            return insertIntoChildren(o);
+            return insertIntoChildren(handle, x, y);
+        }
+
+        /**
+         * Add an object to the columns of the leaf.
+         */
+        void append(int handle, double x, double y) {
+            if (handles == null) {
+                allocate(maxCapacity);
+            } else if (count == handles.length) {
+                // Only leaves at the max height hold more objects than their capacity
+                handles = Arrays.copyOf(handles, count * 2);
+                if (xs != null) {
+                    xs = Arrays.copyOf(xs, count * 2);
+                    ys = Arrays.copyOf(ys, count * 2);
+                }
+            }
+            if (count == 0) {
+                minX = maxX = x;
+                minY = maxY = y;
+            } else {
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            handles[count] = handle;
+            if (xs != null) {
+                xs[count] = x;
+                ys[count] = y;
+            }
+            count++;
+        }
+
+        private void allocate(int capacity) {
+            handles = new int[capacity];
+            if (!store.isOffHeap()) {
+                xs = new double[capacity];
+                ys = new double[capacity];
+            }
+        }
+
+        private double x(int i) {
+            return xs != null ? xs[i] : store.x(handles[i]);
+        }
+
+        private double y(int i) {
+            return ys != null ? ys[i] : store.y(handles[i]);
+        }
+
+        private void computeBounds() {
+            if (count == 0)
+                return;
+            double x0 = x(0), y0 = y(0), x1 = x0, y1 = y0;
+            for (int i = 1; i < count; i++) {
+                x0 = Math.min(x0, x(i));
+                y0 = Math.min(y0, y(i));
+                x1 = Math.max(x1, x(i));
+                y1 = Math.max(y1, y(i));
+            }
+            minX = x0;
+            minY = y0;
+            maxX = x1;
+            maxY = y1;
         }
 
-        private void subdivide() {
+        void subdivide() {
             double h = aabb.height / 2d;
             double w = aabb.width / 2d;
 
             AxisAlignedBoundingBox aabbSW = new AxisAlignedBoundingBox(aabb, w, h);
-            southWest = new ILQuadNode(aabbSW, keyword);
+            southWest = new ILQuadNode(aabbSW, term, maxCapacity, maxHeight, store);
             ((ILQuadNode) southWest).height = height + 1;
-            ((ILQuadNode) southWest).morton = morton + "00";
+            ((ILQuadNode) southWest).morton = morton << 2;
 
             Point xySE = new Point(aabb.x + w, aabb.y);
             AxisAlignedBoundingBox aabbSE = new AxisAlignedBoundingBox(xySE, w, h);
-            southEast = new ILQuadNode(aabbSE, keyword);
+            southEast = new ILQuadNode(aabbSE, term, maxCapacity, maxHeight, store);
             ((ILQuadNode) southEast).height = height + 1;
-            ((ILQuadNode) southEast).morton = morton + "01";
+            ((ILQuadNode) southEast).morton = (morton << 2) | 1;
 
             Point xyNW = new Point(aabb.x, aabb.y + h);
             AxisAlignedBoundingBox aabbNW = new AxisAlignedBoundingBox(xyNW, w, h);
-            northWest = new ILQuadNode(aabbNW, keyword);
+            northWest = new ILQuadNode(aabbNW, term, maxCapacity, maxHeight, store);
             ((ILQuadNode) northWest).height = height + 1;
-            ((ILQuadNode) northWest).morton = morton + "10";
+            ((ILQuadNode) northWest).morton = (morton << 2) | 2;
 
             Point xyNE = new Point(aabb.x + w, aabb.y + h);
             AxisAlignedBoundingBox aabbNE = new AxisAlignedBoundingBox(xyNE, w, h);
-            northEast = new ILQuadNode(aabbNE, keyword);
+            northEast = new ILQuadNode(aabbNE, term, maxCapacity, maxHeight, store);
             ((ILQuadNode) northEast).height = height + 1;
-            ((ILQuadNode) northEast).morton = morton + "11";
+            ((ILQuadNode) northEast).morton = (morton << 2) | 3;
 
             // points live in leaf nodes, so distribute
-            for (DataObject p : objects)
-                insertIntoChildren(p);
-            objects.clear();
+            for (int i = 0; i < count; i++)
+                insertIntoChildren(handles[i], x(i), y(i));
+            handles = null;
+            xs = null;
+            ys = null;
+            count = 0;
         }
 
-        private boolean insertIntoChildren(DataObject object) {
+        private boolean insertIntoChildren(int handle, double x, double y) {
             // A point can only live in one child.
-            if (northWest.insert(object)) return true;
-            if (northEast.insert(object)) return true;
-            if (southWest.insert(object)) return true;
-            return southEast.insert(object);
+            if (((ILQuadNode) northWest).insert(handle, x, y)) return true;
+            if (((ILQuadNode) northEast).insert(handle, x, y)) return true;
+            if (((ILQuadNode) southWest).insert(handle, x, y)) return true;
+            return ((ILQuadNode) southEast).insert(handle, x, y);
         }
 
         @Override
         public boolean remove(DataObject object) {
-            if (!aabb.containsPoint(object.location))
+            throw new RuntimeException("Not implemented!");
+        }
+
+        /**
+         * Remove an object of the store.
+         *
+         * @param handle Handle of the object.
+         * @param x      X coordinate of the object.
+         * @param y      Y coordinate of the object.
+         * @return True if successfully removed.
+         */
+        public boolean remove(int handle, double x, double y) {
+            if (!aabb.containsPoint(x, y))
                 return false;
 
             // If in this AABB and in this node
-            if (objects.remove(object))
-                return true;
+            for (int i = 0; i < count; i++) {
+                if (handles[i] == handle) {
+                    count--;
+                    System.arraycopy(handles, i + 1, handles, i, count - i);
+                    if (xs != null) {
+                        System.arraycopy(xs, i + 1, xs, i, count - i);
+                        System.arraycopy(ys, i + 1, ys, i, count - i);
+                    }
+                    computeBounds();
+                    return true;
+                }
+            }
 
             // If this node has children
             if (!isLeaf()) {
                 // If in this AABB but in a child branch
-                boolean removed = removeFromChildren(object);
+                boolean removed = removeFromChildren(handle, x, y);
                 if (!removed)
                     return false;
 
@@ -244,24 +596,62 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> {
 
             // If all the children's point can be merged into this node
             if ((size() + total) < maxCapacity) {
-                this.objects.addAll(((ILQuadNode) northWest).objects);
-                this.objects.addAll(((ILQuadNode) northEast).objects);
-                this.objects.addAll(((ILQuadNode) southWest).objects);
-                this.objects.addAll(((ILQuadNode) southEast).objects);
+                allocate(maxCapacity);
+                this.count = 0;
+                appendAll((ILQuadNode) northWest);
+                appendAll((ILQuadNode) northEast);
+                appendAll((ILQuadNode) southWest);
+                appendAll((ILQuadNode) southEast);
+                computeBounds();
 
                 this.northWest = null;
                 this.northEast = null;
                 this.southWest = null;
                 this.southEast = null;
+                this.children = null;
             }
         }
 
-        private boolean removeFromChildren(DataObject object) {
+        private void appendAll(ILQuadNode leaf) {
+            if (leaf.count == 0)
+                return;
+            System.arraycopy(leaf.handles, 0, handles, count, leaf.count);
+            if (xs != null) {
+                System.arraycopy(leaf.xs, 0, xs, count, leaf.count);
+                System.arraycopy(leaf.ys, 0, ys, count, leaf.count);
+            }
+            count += leaf.count;
+        }
+
+        private boolean removeFromChildren(int handle, double x, double y) {
             // A point can only live in one child.
-            if (northWest.remove(object)) return true;
-            if (northEast.remove(object)) return true;
-            if (southWest.remove(object)) return true;
-            return southEast.remove(object);
+            if (((ILQuadNode) northWest).remove(handle, x, y)) return true;
+            if (((ILQuadNode) northEast).remove(handle, x, y)) return true;
+            if (((ILQuadNode) southWest).remove(handle, x, y)) return true;
+            return ((ILQuadNode) southEast).remove(handle, x, y);
+        }
+
+        /**
+         * Push the children which may hold objects closer than lambda to the frontier.
+         *
+         * @param ctx      Search context holding the frontier.
+         * @param location Query location.
+         * @param lambda   Squared distance of the k-th object found so far.
+         */
+        void pushChildren(SearchContext ctx, Point location, double lambda) {
+            pushChild(ctx, (ILQuadNode) southWest, location, lambda);
+            pushChild(ctx, (ILQuadNode) southEast, location, lambda);
+            pushChild(ctx, (ILQuadNode) northWest, location, lambda);
+            pushChild(ctx, (ILQuadNode) northEast, location, lambda);
+        }
+
+        private static void pushChild(SearchContext ctx, ILQuadNode child, Point location, double lambda) {
+            if (child.isLeaf() && child.count == 0)             // Line 19
+                return;
+
+            double eMinDist = minDistSqr(child, location);
+            if (eMinDist < lambda)
+                ctx.push(child, eMinDist);                      // Line 20
         }
 
         public List<ILQuadNode> getChildren() {
@@ -278,29 +668,6 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> {
             return children;
         }
 
-        /**
-         * Get the status of the node using the morton code.
-         *
-         * @param m     Morton code for the node.
-         * @param level Recursive parameter (use 1 to start from the root).
-         * @return Int specifying the node type (1:black node, 0:white node, -1: node unreachable)
-         */
-        public int getStatusByMorton(String m, int level) {
-            if (morton.length() == m.length()) {
-                if (this.objects.isEmpty() && this.isLeaf())
-                    return 0;
-                return 1;
-            }
-
-            String nextNode = m.substring(0, 2 * level);
-            for (ILQuadNode child : getChildren()) {
-                if (child.morton.equals(nextNode)) {
-                    return child.getStatusByMorton(m, level + 1);
-                }
-            }
-            return -1;
-        }
-
         @Override
         protected void search(Query query, Collection<DataObject> results) {
             throw new RuntimeException("Not implemented!");
@@ -308,76 +675,17 @@ public class IQuadTree extends BaseQuadTree<Query, DataObject> {
 
         @Override
         protected int size() {
-            return objects.size();
+            return count;
         }
 
         @Override
         public String toString() {
             StringBuilder s = new StringBuilder();
-            s.append(morton).append(": ");
-            for (DataObject object : objects) {
-                s.append(object.id).append(", ");
+            s.append(Long.toBinaryString(morton).substring(1)).append(": ");
+            for (int i = 0; i < count; i++) {
+                s.append(store.id(handles[i])).append(", ");
             }
             return s.toString();
         }
     }
-
-    static class DeltaComparator implements Comparator<ILQuadNode> {
-        private final Point location;
-        private final HashMap<ILQuadNode, Double> distMap;
-
-        DeltaComparator(Point location) {
-            this.location = location;
-            this.distMap = new HashMap<>();
-        }
-
-        @Override
-        public int compare(ILQuadNode o1, ILQuadNode o2) {
-            double o1Min = getMinDistSqr(o1);
-            double o2Min = getMinDistSqr(o2);
-
-            return Double.compare(o1Min, o2Min);
-        }
-
-        public double getMinDist(ILQuadNode o1) {
-            return Math.sqrt(getMinDistSqr(o1));
-        }
-
-        private double getMinDistSqr(ILQuadNode o1) {
-            double o1Min = distMap.getOrDefault(o1, -1.0);
-            ;
-            if (o1Min == -1.0) {
-                o1Min = calcMinDist(o1);
-                distMap.put(o1, o1Min);
-            }
-            return o1Min;
-        }
-
-        private double calcMinDist(ILQuadNode o1) {
-            double x = location.x;
-            double y = location.y;
-            double x_min = o1.getAabb().x;
-            double y_min = o1.getAabb().y;
-            double x_max = x_min + o1.getAabb().width - 0.001;
-            double y_max = y_min + o1.getAabb().height - 0.001;
-
-            if (x < x_min) {
-                if (y < y_min) return hypotSqr(x_min - x, y_min - y);
-                if (y <= y_max) return Math.pow(x_min - x, 2);
-                return hypotSqr(x_min - x, y_max - y);
-            } else if (x <= x_max) {
-                if (y < y_min) return Math.pow(y_min - y, 2);
-                if (y <= y_max) return 0;
-                return Math.pow(y - y_max, 2);
-            } else {
-                if (y < y_min) return hypotSqr(x_max - x, y_min - y);
-                if (y <= y_max) return Math.pow(x - x_max, 2);
-                return hypotSqr(x_max - x, y_max - y);
-            }
-        }
-
-        private double hypotSqr(double xDelta, double yDelta) {
-            return Math.pow(xDelta, 2) + Math.pow(yDelta, 2);
-        }
-    }
 }
@@ -0,0 +1,339 @@
+package org.example.structures;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.base.Query;
+import org.example.helpers.TermDictionary;
+import org.example.models.CkQuery;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of the object and query indexes of a CkQST. The structure of the indexes is stored as is: the nodes
+ * of the keyword quadtrees with their objects, the nodes of the query quadtree with the posting lists, blocks and
+ * statistics of their inverted indexes, and the top-k and search range of every query. Restoring a snapshot therefore
+ * neither places the queries again nor searches their kNN.
+ * <p>
+ * A snapshot is laid out as
+ * <pre>
+ * header      int magic, int version, long LSN of the last logged query operation
+ * dictionary  int term count, then per term ID: int length, UTF-8 bytes
+ * objects     int count, then per object: int id, double x, double y, long st, long et, int term count, int[] terms
+ * queries     int count, then per query: int id, double x, double y, int k, long st, long et, double sr,
+ *             int term count, int[] terms
+ * results     per query: int count, int[] object references
+ * window      see {@link WindowedIQuadTree}
+ * query index see {@link CostBasedQuadTree}
+ * </pre>
+ * where objects and queries are referenced by their position in their table. All the values are big-endian.
+ * <p>
+ * A snapshot is written into a temporary file which is synced and then moved over the previous snapshot, so a crash
+ * while writing leaves the previous snapshot intact.
+ */
+public class IndexSnapshot {
+    static final int MAGIC = 0x434B5353;
+    static final int VERSION = 2;
+
+    /**
+     * Write a snapshot of the indexes.
+     *
+     * @param path        Snapshot file to write.
+     * @param lsn         LSN of the last query operation of the {@link QueryLog} the snapshot includes, 0 if none.
+     * @param dictionary  Dictionary of the term IDs of the indexes.
+     * @param objectIndex Object index.
+     * @param queryIndex  Query index.
+     */
+    public static void write(Path path, long lsn, TermDictionary dictionary, WindowedIQuadTree objectIndex,
+                             CostBasedQuadTree queryIndex) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer out = new Writer(temporary)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lsn);
+
+            out.writeInt(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++)
+                out.writeString(dictionary.term(id));
+
+            List<DataObject> objects = new ArrayList<>();
+            objectIndex.collectObjects(objects);
+            out.writeInt(objects.size());
+            for (DataObject object : objects) {
+                out.objectRefs.put(object, out.objectRefs.size());
+                out.writeInt(object.id);
+                out.writeDouble(object.location.x);
+                out.writeDouble(object.location.y);
+                out.writeLong(object.st);
+                out.writeLong(object.et);
+                out.writeTerms(object.terms);
+            }
+
+            List<CkQuery> queries = new ArrayList<>();
+            queryIndex.collectQueries(queries);
+            out.writeInt(queries.size());
+            for (CkQuery query : queries) {
+                out.queryRefs.put(query, out.queryRefs.size());
+                out.writeInt(query.id);
+                out.writeDouble(query.location.x);
+                out.writeDouble(query.location.y);
+                out.writeInt(query.k);
+                out.writeLong(query.st);
+                out.writeLong(query.et);
+                out.writeDouble(query.sr);
+                out.writeTerms(query.terms);
+            }
+            for (CkQuery query : queries) {
+                List<DataObject> results = query.getResults();
+                out.writeInt(results.size());
+                for (DataObject object : results)
+                    out.writeObject(object);
+            }
+
+            objectIndex.writeSnapshot(out);
+            queryIndex.writeSnapshot(out);
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the LSN of the last query operation a snapshot includes.
+     *
+     * @param path Snapshot file.
+     * @return LSN stored in the header of the snapshot.
+     */
+    public static long readLsn(Path path) throws IOException {
+        try (Reader in = new Reader(path)) {
+            readHeader(in, path);
+            return in.readLong();
+        }
+    }
+
+    private static void readHeader(Reader in, Path path) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException(path + " is not a snapshot");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+    }
+
+    /**
+     * Restore the indexes from a snapshot. The indexes must be empty and configured like the ones of the snapshot.
+     *
+     * @param path        Snapshot file to read.
+     * @param dictionary  Dictionary of the term IDs, which must be empty or a prefix of the one of the snapshot.
+     * @param objectIndex Empty object index.
+     * @param queryIndex  Empty query index.
+     * @return Restored queries.
+     */
+    public static List<CkQuery> read(Path path, TermDictionary dictionary, WindowedIQuadTree objectIndex,
+                                    CostBasedQuadTree queryIndex) throws IOException {
+        try (Reader in = new Reader(path)) {
+            readHeader(in, path);
+            in.readLong();
+
+            // The order of the term IDs is built into the inverted indexes, so they can't be remapped
+            int terms = in.readInt();
+            for (int id = 0; id < terms; id++) {
+                if (dictionary.intern(in.readString()) != id)
+                    throw new IllegalArgumentException("Dictionary does not match the one of the snapshot!");
+            }
+
+            in.objects = new DataObject[in.readInt()];
+            for (int i = 0; i < in.objects.length; i++) {
+                int id = in.readInt();
+                Point location = new Point(in.readDouble(), in.readDouble());
+                long st = in.readLong();
+                long et = in.readLong();
+                int[] objectTerms = in.readTerms();
+                DataObject object = new DataObject(id, location, keywords(dictionary, objectTerms), st, et);
+                object.setTerms(objectTerms);
+                in.objects[i] = object;
+            }
+
+            in.queries = new CkQuery[in.readInt()];
+            double[] ranges = new double[in.queries.length];
+            for (int i = 0; i < in.queries.length; i++) {
+                int id = in.readInt();
+                double x = in.readDouble();
+                double y = in.readDouble();
+                int k = in.readInt();
+                long st = in.readLong();
+                long et = in.readLong();
+                ranges[i] = in.readDouble();
+                int[] queryTerms = in.readTerms();
+                CkQuery query = new CkQuery(id, keywords(dictionary, queryTerms), x, y, k, st, et);
+                query.setTerms(queryTerms);
+                in.queries[i] = query;
+            }
+            for (int i = 0; i < in.queries.length; i++) {
+                int results = in.readInt();
+                for (int j = 0; j < results; j++)
+                    in.queries[i].offer(in.readObject());
+                in.queries[i].sr = ranges[i];
+                // The restored placement is kept, so it counts as made with the current range
+                in.queries[i].placedSr = ranges[i];
+            }
+
+            objectIndex.readSnapshot(in);
+            queryIndex.readSnapshot(in, in.queries);
+            return Arrays.asList(in.queries);
+        }
+    }
+
+    private static List<String> keywords(TermDictionary dictionary, int[] terms) {
+        List<String> keywords = new ArrayList<>(terms.length);
+        for (int term : terms)
+            keywords.add(dictionary.term(term));
+        return keywords;
+    }
+
+    /**
+     * Buffered writer of a snapshot, referencing the objects and queries by their position in their table.
+     */
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+        // Keyed by id, an off-heap window hands out a new copy of an object every time it is read
+        private final Map<DataObject, Integer> objectRefs = new HashMap<>();
+        private final Map<Query, Integer> queryRefs = new IdentityHashMap<>();
+
+        private Writer(Path path) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        }
+
+        void writeByte(int value) throws IOException {
+            out.writeByte(value);
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        void writeDouble(double value) throws IOException {
+            out.writeDouble(value);
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        void writeTerms(int[] terms) throws IOException {
+            out.writeInt(terms.length);
+            for (int term : terms)
+                out.writeInt(term);
+        }
+
+        void writeObject(DataObject object) throws IOException {
+            Integer ref = objectRefs.get(object);
+            if (ref == null)
+                throw new IllegalStateException("Object " + object.id + " is not in the object index!");
+            out.writeInt(ref);
+        }
+
+        void writeQuery(Query query) throws IOException {
+            Integer ref = queryRefs.get(query);
+            if (ref == null)
+                throw new IllegalStateException("Query " + query.id + " is not in the query index!");
+            out.writeInt(ref);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reader of a snapshot through a memory mapped window sliding over the file.
+     */
+    static class Reader implements Closeable {
+        private static final long WINDOW_SIZE = 1L << 28;
+
+        private final FileChannel channel;
+        private final long size;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private DataObject[] objects;
+        private CkQuery[] queries;
+
+        private Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.size = channel.size();
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, size));
+        }
+
+        /**
+         * Make sure the next bytes of the file are in the window.
+         */
+        private MappedByteBuffer ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = windowStart + window.position();
+                if (position + bytes > size)
+                    throw new EOFException("Snapshot is truncated");
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Math.max(WINDOW_SIZE, bytes), size - position));
+            }
+            return window;
+        }
+
+        byte readByte() throws IOException {
+            return ensure(1).get();
+        }
+
+        int readInt() throws IOException {
+            return ensure(4).getInt();
+        }
+
+        long readLong() throws IOException {
+            return ensure(8).getLong();
+        }
+
+        double readDouble() throws IOException {
+            return ensure(8).getDouble();
+        }
+
+        String readString() throws IOException {
+            byte[] bytes = new byte[readInt()];
+            ensure(bytes.length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int[] readTerms() throws IOException {
+            int[] terms = new int[readInt()];
+            MappedByteBuffer in = ensure(4 * terms.length);
+            for (int i = 0; i < terms.length; i++)
+                terms[i] = in.getInt();
+            return terms;
+        }
+
+        DataObject readObject() throws IOException {
+            return objects[readInt()];
+        }
+
+        CkQuery readQuery() throws IOException {
+            return queries[readInt()];
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
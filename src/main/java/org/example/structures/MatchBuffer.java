@@ -0,0 +1,101 @@
+package org.example.structures;
+
+import org.example.base.Query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable buffer of the queries matched by an object. A query can be reached through several keyword pairs and be
+ * stored in several nodes, so every match is de-duplicated by query ID: the IDs matched are kept in an open addressing
+ * table whose entries are stamped with the epoch of the current object, so clearing the buffer moves to the next epoch
+ * in O(1) instead of emptying the table. The queries of a {@link CostBasedQuadTree} have distinct IDs. A buffer must
+ * only be used by one thread at a time.
+ */
+public class MatchBuffer {
+    private Query[] queries = new Query[16];
+    private int size;
+    // IDs matched in the current epoch, an entry being current if its stamp is the epoch
+    private int[] ids = new int[64];
+    private int[] stamps = new int[64];
+    private int mask = 63;
+    private int epoch = 1;
+
+    /**
+     * Drop the matches of the previous object.
+     */
+    public void clear() {
+        Arrays.fill(queries, 0, size, null);
+        size = 0;
+        if (++epoch == 0) {
+            // Stamps of an epoch from before the wrap around would look current
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Add a matched query unless it was already matched since the last clear.
+     *
+     * @param query Matched query.
+     * @return True if the query was not matched yet.
+     */
+    public boolean add(Query query) {
+        int id = query.id;
+        int i = mix(id) & mask;
+        for (; stamps[i] == epoch; i = (i + 1) & mask) {
+            if (ids[i] == id)
+                return false;
+        }
+        ids[i] = id;
+        stamps[i] = epoch;
+
+        if (size == queries.length)
+            queries = Arrays.copyOf(queries, size * 2);
+        queries[size++] = query;
+        if (size * 2 > ids.length)
+            rehash(ids.length * 2);
+        return true;
+    }
+
+    /**
+     * Grow the table, the current entries being the IDs of the buffered queries.
+     */
+    private void rehash(int n) {
+        ids = new int[n];
+        stamps = new int[n];
+        mask = n - 1;
+        for (int j = 0; j < size; j++) {
+            int i = mix(queries[j].id) & mask;
+            while (stamps[i] == epoch)
+                i = (i + 1) & mask;
+            ids[i] = queries[j].id;
+            stamps[i] = epoch;
+        }
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public Query get(int i) {
+        return queries[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copy of the matches.
+     */
+    public List<Query> toList() {
+        return new ArrayList<>(Arrays.asList(queries).subList(0, size));
+    }
+}
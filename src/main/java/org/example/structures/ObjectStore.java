@@ -0,0 +1,77 @@
+package org.example.structures;
+
+import org.example.base.DataObject;
+
+import java.util.List;
+
+/**
+ * Append-only store of the objects of an {@link IQuadTree}, addressed by int handles. The keyword trees hold the
+ * handles of their objects instead of the objects, so an object with many keywords costs one int per keyword, and the
+ * kNN search reads the locations from the store without touching the objects. A removed object leaves a dead handle,
+ * its slot is only reclaimed with the whole store. A store must only be used by one thread at a time.
+ */
+public abstract class ObjectStore {
+    /**
+     * Append an object.
+     *
+     * @return Handle of the object.
+     */
+    public abstract int add(DataObject object);
+
+    /**
+     * Drop the last appended object, which must not be referenced by a handle anymore.
+     */
+    abstract void removeLast();
+
+    /**
+     * Mark the object of the handle as removed.
+     */
+    abstract void kill(int handle);
+
+    public abstract double x(int handle);
+
+    public abstract double y(int handle);
+
+    public abstract int id(int handle);
+
+    /**
+     * Object of the handle, which may be a new copy of the appended object on every call.
+     */
+    public abstract DataObject object(int handle);
+
+    /**
+     * Number of live objects.
+     */
+    public abstract int size();
+
+    /**
+     * Number of handles handed out, live or dead.
+     */
+    abstract int handles();
+
+    abstract boolean isLive(int handle);
+
+    /**
+     * Whether the objects are kept out of the heap, in which case the keyword trees read the locations from the store
+     * instead of copying them.
+     */
+    public boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * Free the storage of the objects, after which the store must not be used anymore.
+     */
+    public void release() {
+    }
+
+    /**
+     * Add the live objects to the list in the order they were appended.
+     */
+    public void collect(List<DataObject> out) {
+        for (int handle = 0; handle < handles(); handle++) {
+            if (isLive(handle))
+                out.add(object(handle));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.structures;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of fixed size chunks of direct memory backing the {@link OffHeapObjectStore}s of a window. The chunks of a
+ * dropped slice go back to the pool and are reused by the next slices, so a window in its steady state neither
+ * allocates direct memory nor waits for the GC to free it. An arena must only be used by one thread at a time.
+ */
+public class OffHeapArena {
+    static final int CHUNK_BITS = 20;
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocated;
+
+    ByteBuffer allocate() {
+        ByteBuffer chunk = free.pollFirst();
+        if (chunk == null) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.nativeOrder());
+            allocated += CHUNK_SIZE;
+        }
+        return chunk;
+    }
+
+    void release(ByteBuffer chunk) {
+        chunk.clear();
+        free.addFirst(chunk);
+    }
+
+    /**
+     * Bytes of direct memory allocated by the arena, in use or pooled.
+     */
+    public long allocatedBytes() {
+        return allocated;
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.structures;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.helpers.TermDictionary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Object store keeping the objects as records in chunks of direct memory from an {@link OffHeapArena}, so a window of
+ * any size adds no objects to the heap for the GC to trace. The kNN search reads the locations straight from the
+ * records, and an object is only materialized again, as a new DataObject, when it is handed out, e.g. into the top-k of
+ * a query.
+ * <p>
+ * Records have a fixed size and are addressed by the long offset handle * RECORD_SIZE:
+ * <pre>
+ * double x, double y, long st, long et, long offset of the terms, int id, int term count (-1 once removed)
+ * </pre>
+ * The term IDs are appended to separate chunks, a term array never spanning two chunks.
+ */
+public class OffHeapObjectStore extends ObjectStore {
+    private static final int RECORD_BITS = 6;
+    private static final int X = 0;
+    private static final int Y = 8;
+    private static final int ST = 16;
+    private static final int ET = 24;
+    private static final int TERMS = 32;
+    private static final int ID = 40;
+    private static final int TERM_COUNT = 44;
+
+    private final OffHeapArena arena;
+    private final TermDictionary dictionary;
+    private final List<ByteBuffer> records = new ArrayList<>();
+    private final List<ByteBuffer> terms = new ArrayList<>();
+    // Offset of the next term array
+    private long termsEnd;
+    private int size;
+    private int live;
+
+    /**
+     * @param arena      Arena the chunks are taken from.
+     * @param dictionary Dictionary the keywords of the materialized objects are resolved through.
+     */
+    public OffHeapObjectStore(OffHeapArena arena, TermDictionary dictionary) {
+        this.arena = arena;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public int add(DataObject object) {
+        if (object.terms.length > OffHeapArena.CHUNK_SIZE / 4)
+            throw new IllegalArgumentException("Object " + object.id + " has too many keywords!");
+
+        long offset = (long) size << RECORD_BITS;
+        if ((offset >>> OffHeapArena.CHUNK_BITS) == records.size())
+            records.add(arena.allocate());
+        if (OffHeapArena.CHUNK_SIZE - (int) (termsEnd & OffHeapArena.CHUNK_MASK) < 4 * object.terms.length)
+            termsEnd = (termsEnd | OffHeapArena.CHUNK_MASK) + 1;
+        if ((termsEnd >>> OffHeapArena.CHUNK_BITS) == terms.size())
+            terms.add(arena.allocate());
+
+        ByteBuffer termChunk = terms.get((int) (termsEnd >>> OffHeapArena.CHUNK_BITS));
+        int termPosition = (int) (termsEnd & OffHeapArena.CHUNK_MASK);
+        for (int i = 0; i < object.terms.length; i++)
+            termChunk.putInt(termPosition + 4 * i, object.terms[i]);
+
+        ByteBuffer chunk = records.get((int) (offset >>> OffHeapArena.CHUNK_BITS));
+        int position = (int) (offset & OffHeapArena.CHUNK_MASK);
+        chunk.putDouble(position + X, object.location.x);
+        chunk.putDouble(position + Y, object.location.y);
+        chunk.putLong(position + ST, object.st);
+        chunk.putLong(position + ET, object.et);
+        chunk.putLong(position + TERMS, termsEnd);
+        chunk.putInt(position + ID, object.id);
+        chunk.putInt(position + TERM_COUNT, object.terms.length);
+
+        termsEnd += 4L * object.terms.length;
+        live++;
+        return size++;
+    }
+
+    @Override
+    void removeLast() {
+        size--;
+        live--;
+        termsEnd = chunk(size).getLong(position(size) + TERMS);
+    }
+
+    @Override
+    void kill(int handle) {
+        chunk(handle).putInt(position(handle) + TERM_COUNT, -1);
+        live--;
+    }
+
+    private ByteBuffer chunk(int handle) {
+        return records.get(handle >>> (OffHeapArena.CHUNK_BITS - RECORD_BITS));
+    }
+
+    private static int position(int handle) {
+        return (int) (((long) handle << RECORD_BITS) & OffHeapArena.CHUNK_MASK);
+    }
+
+    @Override
+    public double x(int handle) {
+        return chunk(handle).getDouble(position(handle) + X);
+    }
+
+    @Override
+    public double y(int handle) {
+        return chunk(handle).getDouble(position(handle) + Y);
+    }
+
+    @Override
+    public int id(int handle) {
+        return chunk(handle).getInt(position(handle) + ID);
+    }
+
+    @Override
+    public DataObject object(int handle) {
+        ByteBuffer chunk = chunk(handle);
+        int position = position(handle);
+        long termsOffset = chunk.getLong(position + TERMS);
+        ByteBuffer termChunk = terms.get((int) (termsOffset >>> OffHeapArena.CHUNK_BITS));
+        int termPosition = (int) (termsOffset & OffHeapArena.CHUNK_MASK);
+        int[] objectTerms = new int[Math.max(0, chunk.getInt(position + TERM_COUNT))];
+        for (int i = 0; i < objectTerms.length; i++)
+            objectTerms[i] = termChunk.getInt(termPosition + 4 * i);
+
+        DataObject object = new DataObject(chunk.getInt(position + ID),
+                new Point(chunk.getDouble(position + X), chunk.getDouble(position + Y)),
+                dictionary.keywords(objectTerms), chunk.getLong(position + ST), chunk.getLong(position + ET));
+        object.setTerms(objectTerms);
+        return object;
+    }
+
+    @Override
+    public int size() {
+        return live;
+    }
+
+    @Override
+    int handles() {
+        return size;
+    }
+
+    @Override
+    boolean isLive(int handle) {
+        return chunk(handle).getInt(position(handle) + TERM_COUNT) >= 0;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+        for (ByteBuffer chunk : records)
+            arena.release(chunk);
+        for (ByteBuffer chunk : terms)
+            arena.release(chunk);
+        records.clear();
+        terms.clear();
+        size = 0;
+        live = 0;
+        termsEnd = 0;
+    }
+}
@@ -1,39 +1,56 @@
 package org.example.structures;
 
-import org.example.CkQST;
+import org.example.CkQSTConfig;
 import org.example.base.DataObject;
 import org.example.base.Query;
+import org.example.helpers.IntArrayList;
+import org.example.helpers.LongObjectHashMap;
+import org.example.helpers.TermDictionary;
+import org.example.metrics.IndexMetrics;
 import org.example.models.CkQuery;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class OrderedInvertedIndex {
-    public final HashMap<String, Integer> keywords;
-    public final HashMap<String, Double> probWV;
-    private final HashMap<String, List<Block>> postingLists;
+    /**
+     * Number of queries with each term as their third keyword, indexed by term ID.
+     */
+    public int[] keywords;
+    /**
+     * Probability of a query having each term as its third keyword, indexed by term ID.
+     */
+    public double[] probWV;
+    private final LongObjectHashMap<List<Block>> postingLists;
     public int countQueries;
+    // Weight of the update cost against the verification cost
+    private final double thetaU;
 
     public OrderedInvertedIndex() {
-        this.postingLists = new HashMap<>();
+        this(CkQSTConfig.DEFAULT_THETA_U);
+    }
+
+    public OrderedInvertedIndex(double thetaU) {
+        this.thetaU = thetaU;
+        this.postingLists = new LongObjectHashMap<>();
 
-        keywords = new HashMap<>();
-        probWV = new HashMap<>();
+        keywords = new int[0];
+        probWV = new double[0];
     }
 
     public void insertQueryPL(Query query) {
         countQueries++;
-        String key = getPLKey(query.keywords);
+        long key = getPLKey(query.terms);
 
         if (!this.postingLists.containsKey(key)) {
-            List<Block> blockList = new LinkedList<>();
+            List<Block> blockList = new ArrayList<>(2);
 
-            if (query.keywords.size() > 2) {                                // Line 1
+            if (query.terms.length > 2) {                                   // Line 1
                 Block b = new Block();
                 blockList.add(b);
 
-                String w3 = query.keywords.get(2);
-                keywords.put(w3, keywords.getOrDefault(w3, 0) + 1);
-                probWV.put(w3, (double) keywords.get(w3) / countQueries);
+                countKeyword(query.terms[2]);
             }
 
             Block b = new Block(query);                                     // Line 2: construct new block b
@@ -45,32 +62,31 @@ public class OrderedInvertedIndex {
         List<Block> bList = this.postingLists.get(key);
         int br = getMinBlock(query, bList);                                 // Line 3
 
-        if (query.keywords.size() <= 2) {
+        if (query.terms.length <= 2) {
             if (br == -1) {
                 bList.add(0, new Block(query));
             } else
-                bList.get(br).add(0, query);
+                bList.get(br).add(query);
             return;
         }
 
-        String w3 = query.keywords.get(2);
+        int w3 = query.terms[2];
 
         // Update probs
-        keywords.put(w3, keywords.getOrDefault(w3, 0) + 1);
-        probWV.put(w3, (double) keywords.get(w3) / countQueries);
+        countKeyword(w3);
 
-        if (br != -1 && bList.get(br).minw.equals(w3)) {                    // Line 4: q.w[3] == br.minw
+        if (br != -1 && bList.get(br).minw == w3) {                         // Line 4: q.w[3] == br.minw
             bList.get(br).add(query);
             return;
         }
 
-        if (br > 1 && bList.get(br - 1).maxw.compareTo(w3) >= 0) {          // Line 5,6
+        if (br > 1 && bList.get(br - 1).maxw >= w3) {                       // Line 5,6
             bList.get(br - 1).add(query);
             return;
         }
 
         // WARNING!: Addition to algorithm to make Case 2 consistent with definition.
-        if (br == -1 && bList.size() == 2 && bList.get(1).maxw.compareTo(w3) >= 0) { // Line 5,6
+        if (br == -1 && bList.size() == 2 && bList.get(1).maxw >= w3) {     // Line 5,6
             bList.get(1).add(query);
             return;
         }
@@ -85,7 +101,7 @@ public class OrderedInvertedIndex {
             b.maxw = w3;
         } else if (choice == 3) {
             Block b = bList.get(br);
-            b.add(0, query);
+            b.add(query);
             b.minw = w3;
         } else if (choice == 4) {
             Block b = new Block(query);
@@ -99,7 +115,26 @@ public class OrderedInvertedIndex {
         }
     }
 
-    private int getChoice(String w3, int i, List<Block> bList) {
+    /**
+     * Count a query with the term as its third keyword and update its probability.
+     *
+     * @param w3 Term ID of the third keyword.
+     */
+    private void countKeyword(int w3) {
+        if (w3 >= keywords.length) {
+            int n = Math.max(w3 + 1, keywords.length * 2);
+            keywords = Arrays.copyOf(keywords, n);
+            probWV = Arrays.copyOf(probWV, n);
+        }
+        keywords[w3]++;
+        probWV[w3] = (double) keywords[w3] / countQueries;
+    }
+
+    private double getProbWV(int term) {
+        return term < probWV.length ? probWV[term] : 0.0;
+    }
+
+    private int getChoice(int w3, int i, List<Block> bList) {
         int choice = -1;
         if (i == -1) {                                                          // Line 7: br == null
             double cCase2 = calcCostCase2(w3, bList.get(bList.size() - 1), bList.size());
@@ -134,35 +169,35 @@ public class OrderedInvertedIndex {
     }
 
     public double verifyProb(Query query) {
-        String key = getPLKey(query.keywords);
+        long key = getPLKey(query.terms);
 
         if (!this.postingLists.containsKey(key)) {
-            if (query.keywords.size() <= 2)
-                return probWV.getOrDefault(query.keywords.get(query.keywords.size() - 1), 0.0);
-            return probWV.getOrDefault(query.keywords.get(2), 0.0);
+            if (query.terms.length <= 2)
+                return getProbWV(query.terms[query.terms.length - 1]);
+            return getProbWV(query.terms[2]);
         }
 
         List<Block> bList = this.postingLists.get(key);
         int br = getMinBlock(query, bList); // Line 3
 
-        if (query.keywords.size() <= 2) {
+        if (query.terms.length <= 2) {
             if (br == -1) {
-                return probWV.getOrDefault(query.keywords.get(query.keywords.size() - 1), 0.0);
+                return getProbWV(query.terms[query.terms.length - 1]);
             } else
                 return bList.get(br).probBVbr(probWV);
         }
 
         if (br == -1) {
-            return probWV.getOrDefault(query.keywords.get(2), 0.0);
+            return getProbWV(query.terms[2]);
         } else {
             int bMaxW = bList.get(br).getKeywords().size();
-            int w_i3 = bList.get(br).getKeywords().indexOf(query.keywords.get(2));
+            int w_i3 = bList.get(br).getKeywords().indexOf(query.terms[2]);
             return bList.get(br).probBVbr(probWV) * (bMaxW - w_i3 + 1) / bMaxW;
         }
     }
 
     public double estVerifyCost(Query query) {
-        String key = getPLKey(query.keywords);
+        long key = getPLKey(query.terms);
 
         if (!this.postingLists.containsKey(key)) {
             return 1; // TODO - ambiguous
@@ -174,19 +209,20 @@ public class OrderedInvertedIndex {
         if (br == -1) {
             return 1; // TODO - ambiguous
         } else {
-            int bMaxW = bList.get(br).getKeywords().size();
-            int w_i3 = bList.get(br).getKeywords().indexOf(query.keywords.get(2));
+            IntArrayList bKeywords = bList.get(br).getKeywords();
+            int bMaxW = bKeywords.size();
+            int w_i3 = bKeywords.indexOf(query.terms[2]);
 
             double sum = 0;
-            for (String wj : bList.get(br).getKeywords()) {
-                sum += probWV.get(wj) * (bMaxW - w_i3);
+            for (int j = 0; j < bMaxW; j++) {
+                sum += probWV[bKeywords.get(j)] * (bMaxW - w_i3);
             }
             return sum;
         }
     }
 
     public double updateCost(Query query) {
-        String key = getPLKey(query.keywords);
+        long key = getPLKey(query.terms);
 
         if (!this.postingLists.containsKey(key)) {
             return 0; // o ops to create a new block with the new query
@@ -203,45 +239,56 @@ public class OrderedInvertedIndex {
     }
 
     private int getMinBlock(Query query, List<Block> blockList) {
-        if (query.keywords.size() <= 2 && !blockList.isEmpty()) {
+        if (query.terms.length <= 2 && !blockList.isEmpty()) {
             return 0;
         }
 
-        if (blockList.size() == 1)
-            return -1;
+        int i = firstBlockAtLeast(blockList, query.terms[2]);                  // Line 3: b.minw >= q.w[3]
+        return i == blockList.size() ? -1 : i;
+    }
 
-        int i = 1;
-        for (Block b : blockList.subList(1, blockList.size())) {
-            if (b.minw.compareTo(query.keywords.get(2)) >= 0) {                   // Line 3: b.minw >= q.w[3]
-                return i;
-            }
-            i++;
+    /**
+     * Binary search the blocks after the first one, whose minw are strictly increasing: inserting a block or lowering
+     * the minw of a block only happens right before the first block with a greater minw.
+     *
+     * @param blockList Blocks of a posting list.
+     * @param w         Term ID.
+     * @return Index of the first block after the first one with minw >= w, or the size of the list if none.
+     */
+    private static int firstBlockAtLeast(List<Block> blockList, int w) {
+        int low = 1;
+        int high = blockList.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blockList.get(mid).minw >= w)
+                high = mid;
+            else
+                low = mid + 1;
         }
+        return low;
+    }
 
-        return -1;
+    private long getPLKey(int[] terms) {
+        if (terms.length < 2)
+            return getPLKey(terms[0], terms[0]);
+        return getPLKey(terms[0], terms[1]);
     }
 
-    private String getPLKey(List<String> keywords) {
-        String key = keywords.get(0) + "_";
-        if (keywords.size() < 2) {
-            key += keywords.get(0);
-        } else {
-            key += keywords.get(1);
-        }
-        return key;
+    private static long getPLKey(int w1, int w2) {
+        return ((long) w1 << 32) | (w2 & 0xFFFFFFFFL);
     }
 
-    private double calcCostCase2(String w3, Block br, int numB) {
+    private double calcCostCase2(int w3, Block br, int numB) {
         double C_PL_V = (br.probBVbr_c(probWV, w3) - br.probBVbr(probWV)) * (Math.log(numB) + br.size()) + br.probBVbr_c(probWV, w3);
-        return C_PL_V + CkQST.thetaU * 1;                                       // CPLu = O(1)
+        return C_PL_V + thetaU * 1;                                       // CPLu = O(1)
     }
 
-    private double calcCostCase3(String w3, Block br, int numB) {
+    private double calcCostCase3(int w3, Block br, int numB) {
         double C_PL_V = (br.probBVbr_c(probWV, w3) - br.probBVbr(probWV)) * (Math.log(numB) + br.size()) + br.probBVbr_c(probWV, w3);
-        return C_PL_V + CkQST.thetaU * 1;                                      //CPLu = O(1)
+        return C_PL_V + thetaU * 1;                                      //CPLu = O(1)
     }
 
-    private double calcCostCase4(String w3, List<Block> brs, int numB) {
+    private double calcCostCase4(int w3, List<Block> brs, int numB) {
         double sum_p_B_V_br = 0;
         for (Block br : brs) {
             sum_p_B_V_br += br.probBVbr(probWV);
@@ -249,52 +296,63 @@ public class OrderedInvertedIndex {
 
         double sum_C_B_V_br = Math.log((float) (numB + 1) / numB) * sum_p_B_V_br;
 
-        double C_B_V_b = probWV.get(w3) * Math.log(numB + 1);
+        double C_B_V_b = probWV[w3] * Math.log(numB + 1);
 
         double C_PL_V = sum_C_B_V_br + C_B_V_b;
-        return C_PL_V + CkQST.thetaU * (1 + Math.log(numB + 1));               // CPLu = O(1 + log |B|)
+        return C_PL_V + thetaU * (1 + Math.log(numB + 1));               // CPLu = O(1 + log |B|)
     }
 
-    public void searchObject(DataObject obj, Collection<Query> results) {
+    /**
+     * Add the queries of the index matching with the object to the buffer.
+     *
+     * @param obj     Object to be matched.
+     * @param results Buffer of the matched queries, de-duplicating them.
+     */
+    public void searchObject(DataObject obj, MatchBuffer results) {
+        if (IndexMetrics.ENABLED)
+            IndexMetrics.objectSearched();
         // ASSUMPTION: Paper doesn't include details on find the PL. We are doing an exhaustive search.
-        for (int i = 0; i < obj.keywords.size(); i++) {
-            String keyword = obj.keywords.get(i);
-            String oneKey = keyword + "_" + keyword;
-            searchOneKey(oneKey, obj, results);
-
-            for (int j = i + 1; j < obj.keywords.size(); j++) {
-                String key = keyword + "_" + obj.keywords.get(j);
-                searchTwoKey(key, j, obj, results);
+        for (int i = 0; i < obj.terms.length; i++) {
+            int term = obj.terms[i];
+            searchOneKey(getPLKey(term, term), obj, results);
+
+            for (int j = i + 1; j < obj.terms.length; j++) {
+                searchTwoKey(getPLKey(term, obj.terms[j]), j, obj, results);
             }
         }
     }
 
-    private void searchOneKey(String oneKey, DataObject obj, Collection<Query> results) {
-        if (postingLists.containsKey(oneKey)) {
-            List<Block> oneKeyBlockList = postingLists.get(oneKey);
-
+    private void searchOneKey(long oneKey, DataObject obj, MatchBuffer results) {
+        List<Block> oneKeyBlockList = postingLists.get(oneKey);
+        if (oneKeyBlockList != null) {
+            if (IndexMetrics.ENABLED)
+                IndexMetrics.postingListProbed();
             if (!oneKeyBlockList.isEmpty()) {
-                for (Query query : oneKeyBlockList.get(0).getQueries()) {
-                    if ((query instanceof CkQuery && ((CkQuery) query).containsPoint(obj.location))) {
-                        if (!results.contains(query)) {
-                            results.add(query);
-                        }
-                    }
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.blockScanned();
+                Block b = oneKeyBlockList.get(0);
+                for (int i = 0; i < b.size(); i++) {
+                    Query query = b.get(i);
+                    if (containsPoint(query, obj))
+                        results.add(query);
                 }
             }
         }
     }
 
-    private void searchTwoKey(String key, int idxJ, DataObject obj, Collection<Query> results) {
-        if (postingLists.containsKey(key)) {
-            List<Block> blockList = postingLists.get(key);
-            if (obj.keywords.size() == 2 && !blockList.isEmpty()) {
-                for (Query query : blockList.get(0).getQueries()) {
-                    if ((query instanceof CkQuery && ((CkQuery) query).containsPoint(obj.location))) {
-                        if (!results.contains(query)) {
-                            results.add(query);
-                        }
-                    }
+    private void searchTwoKey(long key, int idxJ, DataObject obj, MatchBuffer results) {
+        List<Block> blockList = postingLists.get(key);
+        if (blockList != null) {
+            if (IndexMetrics.ENABLED)
+                IndexMetrics.postingListProbed();
+            if (obj.terms.length == 2 && !blockList.isEmpty()) {
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.blockScanned();
+                Block b = blockList.get(0);
+                for (int i = 0; i < b.size(); i++) {
+                    Query query = b.get(i);
+                    if (containsPoint(query, obj))
+                        results.add(query);
                 }
                 return;
             }
@@ -302,51 +360,202 @@ public class OrderedInvertedIndex {
             if (blockList.isEmpty())
                 return;
 
-            for (Block b : blockList) {
-                for (int j = idxJ; j < obj.keywords.size(); j++) {
-                    if (b.minw == null || b.minw.compareTo(obj.keywords.get(j)) <= 0) {
-                        for (Query query : b.getQueries()) {
-                            boolean match = query.keywords.size() <= obj.keywords.size();
-
-                            if (match && query.keywords.size() > 2 && !new HashSet<>(obj.keywords).containsAll(query.keywords)) {
-                                match = false;
-                            }
-
-                            if (match &&
-                                    ((query instanceof CkQuery && ((CkQuery) query).containsPoint(obj.location)))) {
-                                if (!results.contains(query)) {
-                                    results.add(query);
-                                }
-                            }
-                        }
+            // The third keyword of a query is at least the minw of its block and must be a keyword of the object. The
+            // blocks after the first are sorted by minw, so the ones past the greatest keyword of the object are
+            // skipped, and each block is scanned once
+            int end = firstBlockAtLeast(blockList, obj.terms[obj.terms.length - 1] + 1);
+            // Queries with a keyword bit the object lacks are rejected before the exact containment check
+            long missing = ~obj.signature;
+            for (int i = 0; i < end; i++) {
+                Block b = blockList.get(i);
+                if ((b.signature & missing) != 0)
+                    continue;
+                if (IndexMetrics.ENABLED)
+                    IndexMetrics.blockScanned();
+                for (int l = 0; l < b.size(); l++) {
+                    Query query = b.get(l);
+                    if ((query.signature & missing) != 0)
+                        continue;
+                    boolean match = query.terms.length <= obj.terms.length;
+
+                    if (match && query.terms.length > 2 && !TermDictionary.containsAll(obj.terms, query.terms)) {
+                        match = false;
                     }
+
+                    if (match && containsPoint(query, obj))
+                        results.add(query);
                 }
             }
         }
     }
 
-    public boolean remove(CkQuery query) {
-        throw new RuntimeException("Not implemented!");
+    private static boolean containsPoint(Query query, DataObject obj) {
+        if (!(query instanceof CkQuery))
+            return false;
+        boolean match = ((CkQuery) query).containsPoint(obj.location);
+        if (IndexMetrics.ENABLED)
+            IndexMetrics.spatialCheck(match);
+        return match;
+    }
+
+    /**
+     * Remove the query from its posting list. Blocks left empty are dropped, except the first block of the list which
+     * holds the queries with at most two keywords.
+     *
+     * @param query Query to be removed.
+     * @return True if the query was found in this index.
+     */
+    public boolean remove(Query query) {
+        long key = getPLKey(query.terms);
+        List<Block> bList = this.postingLists.get(key);
+        if (bList == null)
+            return false;
+
+        int br = findBlock(query, bList);
+        if (br == -1)
+            return false;
+
+        countQueries--;
+        if (query.terms.length > 2) {
+            int w3 = query.terms[2];
+            keywords[w3]--;
+            probWV[w3] = countQueries == 0 ? 0.0 : (double) keywords[w3] / countQueries;
+        }
+
+        if (br > 0 && bList.get(br).size() == 0)
+            bList.remove(br);
+        if (bList.size() == 1 && bList.get(0).size() == 0)
+            this.postingLists.remove(key);
+        return true;
+    }
+
+    /**
+     * Find the block holding the query and remove the query from it.
+     *
+     * @return Index of the block, -1 if the query is not in the posting list.
+     */
+    private static int findBlock(Query query, List<Block> blockList) {
+        // Usually the last block with minw <= w3, unless a block was inserted after it later
+        if (query.terms.length > 2) {
+            int br = firstBlockAtLeast(blockList, query.terms[2] + 1) - 1;
+            if (blockList.get(br).remove(query))
+                return br;
+        }
+        for (int i = 0; i < blockList.size(); i++) {
+            if (blockList.get(i).remove(query))
+                return i;
+        }
+        return -1;
     }
 
     private String plToString() {
         StringBuilder s = new StringBuilder();
-        for (Map.Entry<String, List<Block>> entry : postingLists.entrySet()) {
-            s.append(entry.getKey()).append(" -> ");
+        postingLists.forEach((key, blocks) -> {
+            s.append(key >>> 32).append("_").append((int) key).append(" -> ");
             int i = 0;
-            for (Block b : entry.getValue()) {
+            for (Block b : blocks) {
                 s.append(i).append("-[").append(b.minw).append(", ").append(b.maxw).append("]:{");
-                for (Query q : b.getQueries()) {
-                    s.append(q.id).append(", ");
+                for (int l = 0; l < b.size(); l++) {
+                    s.append(b.get(l).id).append(", ");
                 }
                 s.append("}, ");
                 i++;
             }
             s.append("\n");
-        }
+        });
         return s.toString();
     }
 
+    /**
+     * Add the queries of the index not seen yet to the list.
+     */
+    void collectQueries(Set<Query> seen, List<CkQuery> out) {
+        postingLists.forEach((key, blockList) -> {
+            for (Block b : blockList) {
+                for (int i = 0; i < b.size(); i++) {
+                    Query query = b.get(i);
+                    if (!(query instanceof CkQuery))
+                        throw new IllegalStateException("Only CkQueries can be written to a snapshot!");
+                    if (seen.add(query))
+                        out.add((CkQuery) query);
+                }
+            }
+        });
+    }
+
+    /**
+     * Write the index to a snapshot:
+     * <pre>
+     * int countQueries, int length, int[] keywords, int length, double[] probWV, int posting list count,
+     * then per posting list: long key, int block count, then per block: int minw, int maxw,
+     * int keyword count, int[] keywords, int query count, int[] query references
+     * </pre>
+     */
+    void writeSnapshot(IndexSnapshot.Writer out) throws IOException {
+        out.writeInt(countQueries);
+        out.writeInt(keywords.length);
+        for (int count : keywords)
+            out.writeInt(count);
+        out.writeInt(probWV.length);
+        for (double prob : probWV)
+            out.writeDouble(prob);
+
+        out.writeInt(postingLists.size());
+        try {
+            postingLists.forEach((key, blockList) -> {
+                try {
+                    out.writeLong(key);
+                    out.writeInt(blockList.size());
+                    for (Block b : blockList) {
+                        out.writeInt(b.minw);
+                        out.writeInt(b.maxw);
+                        IntArrayList blockKeywords = b.getKeywords();
+                        out.writeInt(blockKeywords.size());
+                        for (int i = 0; i < blockKeywords.size(); i++)
+                            out.writeInt(blockKeywords.get(i));
+                        out.writeInt(b.size());
+                        for (int i = 0; i < b.size(); i++)
+                            out.writeQuery(b.get(i));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    void readSnapshot(IndexSnapshot.Reader in) throws IOException {
+        countQueries = in.readInt();
+        keywords = new int[in.readInt()];
+        for (int i = 0; i < keywords.length; i++)
+            keywords[i] = in.readInt();
+        probWV = new double[in.readInt()];
+        for (int i = 0; i < probWV.length; i++)
+            probWV[i] = in.readDouble();
+
+        int numLists = in.readInt();
+        for (int i = 0; i < numLists; i++) {
+            long key = in.readLong();
+            int numBlocks = in.readInt();
+            List<Block> blockList = new ArrayList<>(numBlocks);
+            for (int j = 0; j < numBlocks; j++) {
+                Block b = new Block();
+                b.minw = in.readInt();
+                b.maxw = in.readInt();
+                int numKeywords = in.readInt();
+                for (int l = 0; l < numKeywords; l++)
+                    b.getKeywords().add(in.readInt());
+                int numQueries = in.readInt();
+                for (int l = 0; l < numQueries; l++)
+                    b.add(in.readQuery());
+                blockList.add(b);
+            }
+            postingLists.put(key, blockList);
+        }
+    }
+
     @Override
     public String toString() {
         return "OrderedInvertedIndex:\n" +
@@ -0,0 +1,466 @@
+package org.example.structures;
+
+import org.example.models.CkQuery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of the query registrations and removals of a {@link CostBasedQuadTree}. Every operation
+ * gets the next log sequence number (LSN). Appends only copy the operation into a buffer: a background thread writes
+ * and fsyncs the buffered operations as one group, at most every sync interval, so the cost of an fsync is shared by
+ * all the operations of the group.
+ * <p>
+ * A record is laid out as
+ * <pre>
+ * int payload length, int CRC32 of the payload,
+ * payload     long lsn, byte operation, and for an insert or a removal: int query id, and for an insert: double x,
+ *             double y, int k, long st, long et, int keyword count, then per keyword: int length, UTF-8 bytes
+ * </pre>
+ * A truncated log starts with a base record holding the last dropped LSN, so the LSNs keep growing across a truncation
+ * even if no operation is left. A torn record at the end of the log, from a crash in the middle of a write, is dropped
+ * when the log is opened. The log is read through a window mapped over the file, so it may grow past the 2 GiB of a
+ * single mapping.
+ */
+public class QueryLog implements Closeable {
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte BASE = 3;
+    private static final int RECORD_HEADER = 8;
+
+    public interface Visitor {
+        void insert(long lsn, CkQuery query);
+
+        void remove(long lsn, int queryId);
+    }
+
+    private final Path path;
+    private final long syncIntervalMillis;
+    private final int groupBytes;
+    private final Object lock = new Object();
+    private final Thread flusher;
+    private FileChannel channel;
+
+    // Guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    private long lastLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * Open a log, creating it if needed.
+     *
+     * @param path               Log file.
+     * @param syncIntervalMillis Max time an operation waits in the buffer before it is written and synced.
+     * @param groupBytes         Size of the buffered operations which triggers a write without waiting any longer.
+     */
+    public QueryLog(Path path, long syncIntervalMillis, int groupBytes) throws IOException {
+        this.path = path;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.groupBytes = groupBytes;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        // Drop a torn tail, so new records are appended right after the last complete one
+        long end = scan(channel, -1, null);
+        channel.truncate(end);
+        channel.position(end);
+        this.durableLsn = lastLsn;
+
+        this.flusher = new Thread(this::flushLoop, "query-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public QueryLog(Path path) throws IOException {
+        this(path, 10, 1 << 16);
+    }
+
+    /**
+     * Log the registration of a query.
+     *
+     * @return LSN of the operation.
+     */
+    public long logInsert(CkQuery query) throws IOException {
+        List<byte[]> keywords = new ArrayList<>(query.keywords.size());
+        int size = 8 + 1 + 4 + 8 + 8 + 4 + 8 + 8 + 4;
+        for (String keyword : query.keywords) {
+            byte[] bytes = keyword.getBytes(StandardCharsets.UTF_8);
+            keywords.add(bytes);
+            size += 4 + bytes.length;
+        }
+
+        synchronized (lock) {
+            ByteBuffer out = reserve(RECORD_HEADER + size);
+            int start = out.position();
+            out.position(start + RECORD_HEADER);
+            out.putLong(++lastLsn);
+            out.put(INSERT);
+            out.putInt(query.id);
+            out.putDouble(query.location.x);
+            out.putDouble(query.location.y);
+            out.putInt(query.k);
+            out.putLong(query.st);
+            out.putLong(query.et);
+            out.putInt(keywords.size());
+            for (byte[] keyword : keywords) {
+                out.putInt(keyword.length);
+                out.put(keyword);
+            }
+            seal(out, start);
+            return lastLsn;
+        }
+    }
+
+    /**
+     * Log the removal of a query.
+     *
+     * @return LSN of the operation.
+     */
+    public long logRemove(int queryId) throws IOException {
+        synchronized (lock) {
+            ByteBuffer out = reserve(RECORD_HEADER + 8 + 1 + 4);
+            int start = out.position();
+            out.position(start + RECORD_HEADER);
+            out.putLong(++lastLsn);
+            out.put(REMOVE);
+            out.putInt(queryId);
+            seal(out, start);
+            return lastLsn;
+        }
+    }
+
+    private ByteBuffer reserve(int bytes) throws IOException {
+        if (failure != null)
+            throw failure;
+        if (closed)
+            throw new IOException("Query log is closed");
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        return pending;
+    }
+
+    /**
+     * Fill in the header of the record written from start, and wake the flusher up if the group is complete.
+     */
+    private void seal(ByteBuffer out, int start) {
+        int length = out.position() - start - RECORD_HEADER;
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), start + RECORD_HEADER, length);
+        out.putInt(start, length);
+        out.putInt(start + 4, (int) crc.getValue());
+
+        // The flusher waits for the first record of a group, then for the group to fill up or time out
+        if (start == 0 || out.position() >= groupBytes)
+            lock.notifyAll();
+    }
+
+    /**
+     * Make the LSNs of the next operations follow the given one, e.g. the LSN of the snapshot a log is recovered
+     * with. Does nothing if the log is past it already.
+     *
+     * @param lsn LSN the next operations must follow.
+     */
+    public void advanceTo(long lsn) {
+        synchronized (lock) {
+            if (lsn > lastLsn) {
+                // The skipped LSNs are durable as soon as the operations before them are
+                if (durableLsn == lastLsn)
+                    durableLsn = lsn;
+                lastLsn = lsn;
+            }
+        }
+    }
+
+    /**
+     * LSN of the last logged operation, which may not be durable yet.
+     */
+    public long lastLsn() {
+        synchronized (lock) {
+            return lastLsn;
+        }
+    }
+
+    /**
+     * Wait until the operation is written and synced.
+     *
+     * @param lsn LSN of the operation.
+     */
+    public void awaitDurable(long lsn) throws IOException {
+        synchronized (lock) {
+            while (durableLsn < lsn && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the query log", e);
+                }
+            }
+            if (durableLsn < lsn)
+                throw failure;
+        }
+    }
+
+    /**
+     * Wait until every operation logged so far is written and synced.
+     */
+    public void sync() throws IOException {
+        awaitDurable(lastLsn());
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long lsn;
+            synchronized (lock) {
+                try {
+                    while (!closed && pending.position() == 0)
+                        lock.wait();
+                    // Give the group some time to fill up
+                    long deadline = System.currentTimeMillis() + syncIntervalMillis;
+                    long now;
+                    while (!closed && pending.position() < groupBytes && (now = System.currentTimeMillis()) < deadline)
+                        lock.wait(deadline - now);
+                } catch (InterruptedException e) {
+                    // Nothing would be written anymore, so the waiting threads and the next operations must fail
+                    failure = new InterruptedIOException("Query log flusher was interrupted");
+                    lock.notifyAll();
+                    return;
+                }
+                if (pending.position() == 0)
+                    return;
+
+                ByteBuffer group = pending;
+                pending = writing;
+                writing = group;
+                lsn = lastLsn;
+            }
+
+            try {
+                writing.flip();
+                synchronized (this) {
+                    while (writing.hasRemaining())
+                        channel.write(writing);
+                    channel.force(false);
+                }
+                writing.clear();
+                synchronized (lock) {
+                    durableLsn = lsn;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replay the logged operations in LSN order.
+     *
+     * @param afterLsn Operations up to this LSN, e.g. the LSN of a snapshot, are skipped.
+     * @param visitor  Visitor of the operations.
+     */
+    public void replay(long afterLsn, Visitor visitor) throws IOException {
+        sync();
+        synchronized (this) {
+            scan(channel, afterLsn, visitor);
+        }
+    }
+
+    /**
+     * Drop the operations up to the LSN from the log, e.g. once a snapshot holding them is durable. The log is
+     * rewritten into a temporary file which then atomically replaces it.
+     *
+     * @param upToLsn Last LSN to drop.
+     */
+    public void truncate(long upToLsn) throws IOException {
+        sync();
+        synchronized (this) {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // Keep the LSNs dropped from being handed out again once the log is reopened
+                ByteBuffer base = ByteBuffer.allocate(RECORD_HEADER + 8 + 1);
+                base.position(RECORD_HEADER);
+                base.putLong(upToLsn);
+                base.put(BASE);
+                CRC32 crc = new CRC32();
+                crc.update(base.array(), RECORD_HEADER, 8 + 1);
+                base.putInt(0, 8 + 1);
+                base.putInt(4, (int) crc.getValue());
+                base.flip();
+                while (base.hasRemaining())
+                    out.write(base);
+
+                Records records = new Records(channel);
+                ByteBuffer record;
+                while ((record = records.next()) != null) {
+                    if (record.getLong(RECORD_HEADER) > upToLsn) {
+                        while (record.hasRemaining())
+                            out.write(record);
+                    }
+                }
+                out.force(true);
+            }
+
+            channel.close();
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+    }
+
+    /**
+     * Read the complete records of the log, visiting the ones after the LSN. Without a visitor, only the last LSN of
+     * the log is read, which is done when the log is opened.
+     *
+     * @return Offset of the end of the last complete record.
+     */
+    private long scan(FileChannel in, long afterLsn, Visitor visitor) throws IOException {
+        Records records = new Records(in);
+        ByteBuffer record;
+        while ((record = records.next()) != null) {
+            record.position(RECORD_HEADER);
+            long lsn = record.getLong();
+            if (visitor == null)
+                lastLsn = Math.max(lastLsn, lsn);
+            else if (lsn > afterLsn)
+                visit(record, lsn, visitor);
+        }
+        return records.position();
+    }
+
+    private static void visit(ByteBuffer record, long lsn, Visitor visitor) {
+        byte operation = record.get();
+        if (operation == BASE)
+            return;
+        int id = record.getInt();
+        if (operation == REMOVE) {
+            visitor.remove(lsn, id);
+            return;
+        }
+
+        double x = record.getDouble();
+        double y = record.getDouble();
+        int k = record.getInt();
+        long st = record.getLong();
+        long et = record.getLong();
+        List<String> keywords = new ArrayList<>(record.getInt());
+        while (record.hasRemaining()) {
+            byte[] keyword = new byte[record.getInt()];
+            record.get(keyword);
+            keywords.add(new String(keyword, StandardCharsets.UTF_8));
+        }
+        visitor.insert(lsn, new CkQuery(id, keywords, x, y, k, st, et));
+    }
+
+    /**
+     * Reader of the complete records of a log, through a window mapped over the file which slides along the records.
+     */
+    private static class Records {
+        private static final long WINDOW_SIZE = 1L << 28;
+
+        private final FileChannel channel;
+        private final long size;
+        private final CRC32 crc = new CRC32();
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        private Records(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW_SIZE, size));
+        }
+
+        /**
+         * Offset of the end of the last record read.
+         */
+        private long position() {
+            return windowStart + window.position();
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return Record, header included, or null at the end of the log or at a torn record.
+         */
+        private ByteBuffer next() throws IOException {
+            long position = position();
+            if (size - position < RECORD_HEADER)
+                return null;
+            int length = ensure(RECORD_HEADER).getInt(window.position());
+            if (length <= 0 || length > size - position - RECORD_HEADER)
+                return null;
+
+            MappedByteBuffer in = ensure(RECORD_HEADER + length);
+            ByteBuffer record = in.slice();
+            record.limit(RECORD_HEADER + length);
+            ByteBuffer payload = record.duplicate();
+            payload.position(RECORD_HEADER);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != record.getInt(4))
+                return null;
+
+            in.position(in.position() + RECORD_HEADER + length);
+            return record;
+        }
+
+        /**
+         * Make sure the next bytes of the file, which must exist, are in the window.
+         */
+        private MappedByteBuffer ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = position();
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Math.max(WINDOW_SIZE, bytes), size - position));
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Write and sync the buffered operations, then close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            channel.close();
+        }
+        synchronized (lock) {
+            if (failure != null)
+                throw failure;
+        }
+    }
+}
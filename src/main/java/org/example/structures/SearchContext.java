@@ -0,0 +1,247 @@
+package org.example.structures;
+
+import org.example.base.DataObject;
+import org.example.base.TopKHeap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reusable scratch space of a kNN search over an {@link IQuadTree}. Holds the keyword hit counters of the objects, the
+ * best-first frontier of nodes and the top-k in primitive arrays which are reset in O(1) between searches, so a search
+ * in the steady state does not allocate. The top-k stays in the context after the search. A context must only be used
+ * by one thread at a time.
+ */
+public class SearchContext {
+    // Top-k of the search, the heap hands out slots of the candidate arrays. A candidate is a handle in the store of
+    // the tree it was found in, only materialized as an object when read
+    private final TopKHeap results;
+    private ObjectStore[] candidateStores;
+    private int[] candidateHandles;
+
+    // Open addressing counters keyed by object id, a slot is live only if stamped with the current epoch
+    private int[] hitKeys;
+    private int[] hitCounts;
+    private int[] hitEpochs;
+    private int hitMask;
+    private int hitSize;
+    private int epoch;
+
+    // Binary min-heap of nodes keyed by their squared min distance to the query location
+    private double[] frontierDists;
+    private IQuadTree.ILQuadNode[] frontierNodes;
+    private int frontierSize;
+
+    public SearchContext() {
+        results = new TopKHeap(16);
+        candidateStores = new ObjectStore[16];
+        candidateHandles = new int[16];
+
+        hitKeys = new int[1024];
+        hitCounts = new int[1024];
+        hitEpochs = new int[1024];
+        hitMask = 1023;
+        epoch = 1;
+
+        frontierDists = new double[64];
+        frontierNodes = new IQuadTree.ILQuadNode[64];
+    }
+
+    /**
+     * Start a new kNN search, dropping the top-k of the previous one.
+     *
+     * @param k Number of objects to find.
+     */
+    public void begin(int k) {
+        Arrays.fill(candidateStores, 0, results.size(), null);
+        if (k > candidateStores.length) {
+            candidateStores = new ObjectStore[k];
+            candidateHandles = new int[k];
+        }
+        results.reset(k);
+    }
+
+    /**
+     * Offer an object matching all the keywords to the top-k.
+     *
+     * @param store   Store of the tree the object was found in, which must stay live until the top-k is read.
+     * @param handle  Handle of the object in the store.
+     * @param distSqr Squared distance of the object to the query location.
+     * @return True if the object entered the top-k.
+     */
+    boolean offer(ObjectStore store, int handle, double distSqr) {
+        int slot = results.offerSlot(distSqr);
+        if (slot < 0)
+            return false;
+        candidateStores[slot] = store;
+        candidateHandles[slot] = handle;
+        return true;
+    }
+
+    /**
+     * Squared distance an object must beat to enter the top-k.
+     */
+    double bound() {
+        return results.bound();
+    }
+
+    /**
+     * Number of objects in the top-k.
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Object of the top-k, in no particular order.
+     *
+     * @param i Position in [0, size()).
+     */
+    public DataObject get(int i) {
+        int slot = results.handle(i);
+        return candidateStores[slot].object(candidateHandles[slot]);
+    }
+
+    /**
+     * Squared distance of an object of the top-k to the query location.
+     *
+     * @param i Position in [0, size()).
+     */
+    public double distSqr(int i) {
+        return results.dist(i);
+    }
+
+    /**
+     * Copy the top-k out of the context.
+     *
+     * @return Objects of the top-k ordered by ascending distance.
+     */
+    public List<DataObject> toList() {
+        List<DataObject> out = new ArrayList<>(results.size());
+        for (int i : results.sortedOrder())
+            out.add(get(i));
+        return out;
+    }
+
+    /**
+     * Forget the hits and the frontier of the previous tree searched, keeping the top-k.
+     */
+    void reset() {
+        hitSize = 0;
+        if (++epoch == 0) {
+            Arrays.fill(hitEpochs, 0);
+            epoch = 1;
+        }
+
+        Arrays.fill(frontierNodes, 0, frontierSize, null);
+        frontierSize = 0;
+    }
+
+    /**
+     * Count one more keyword hit of the object.
+     *
+     * @param id Handle of the object in the tree searched.
+     * @return Number of hits of the object in this search.
+     */
+    int hit(int id) {
+        int i = mix(id) & hitMask;
+        for (; hitEpochs[i] == epoch; i = (i + 1) & hitMask) {
+            if (hitKeys[i] == id)
+                return ++hitCounts[i];
+        }
+
+        hitKeys[i] = id;
+        hitCounts[i] = 1;
+        hitEpochs[i] = epoch;
+        if (++hitSize * 2 > hitKeys.length)
+            growHits();
+        return 1;
+    }
+
+    private void growHits() {
+        int[] keys = hitKeys;
+        int[] counts = hitCounts;
+        int[] epochs = hitEpochs;
+
+        int n = keys.length * 2;
+        hitKeys = new int[n];
+        hitCounts = new int[n];
+        hitEpochs = new int[n];
+        hitMask = n - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (epochs[j] != epoch)
+                continue;
+            int i = mix(keys[j]) & hitMask;
+            while (hitEpochs[i] == epoch)
+                i = (i + 1) & hitMask;
+            hitKeys[i] = keys[j];
+            hitCounts[i] = counts[j];
+            hitEpochs[i] = epoch;
+        }
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    void push(IQuadTree.ILQuadNode node, double distSqr) {
+        if (frontierSize == frontierNodes.length) {
+            frontierNodes = Arrays.copyOf(frontierNodes, frontierSize * 2);
+            frontierDists = Arrays.copyOf(frontierDists, frontierSize * 2);
+        }
+
+        // Sift up
+        int i = frontierSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (frontierDists[parent] <= distSqr)
+                break;
+            frontierNodes[i] = frontierNodes[parent];
+            frontierDists[i] = frontierDists[parent];
+            i = parent;
+        }
+        frontierNodes[i] = node;
+        frontierDists[i] = distSqr;
+    }
+
+    boolean isFrontierEmpty() {
+        return frontierSize == 0;
+    }
+
+    /**
+     * Squared min distance of the closest node in the frontier.
+     */
+    double peekDist() {
+        return frontierDists[0];
+    }
+
+    IQuadTree.ILQuadNode pop() {
+        IQuadTree.ILQuadNode top = frontierNodes[0];
+        int n = --frontierSize;
+        IQuadTree.ILQuadNode node = frontierNodes[n];
+        double dist = frontierDists[n];
+        frontierNodes[n] = null;
+
+        // Sift down the last node from the root
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n)
+                break;
+            if (child + 1 < n && frontierDists[child + 1] < frontierDists[child])
+                child++;
+            if (dist <= frontierDists[child])
+                break;
+            frontierNodes[i] = frontierNodes[child];
+            frontierDists[i] = frontierDists[child];
+            i = child;
+        }
+        if (n > 0) {
+            frontierNodes[i] = node;
+            frontierDists[i] = dist;
+        }
+        return top;
+    }
+}
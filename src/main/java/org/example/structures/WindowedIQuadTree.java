@@ -0,0 +1,260 @@
+package org.example.structures;
+
+import org.example.base.BaseQuadTree;
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.models.CkQuery;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Sliding window over an {@link IQuadTree}. The window is split into time (or count) slices, each backed by its own
+ * IQuadTree, so that expired objects are evicted in bulk by dropping the oldest slice instead of removing them one at
+ * a time. Eviction granularity is therefore one slice: an object lives at most one slice longer than the window.
+ */
+public class WindowedIQuadTree extends BaseQuadTree<Query, DataObject> {
+    private static final ThreadLocal<SearchContext> CONTEXT = ThreadLocal.withInitial(SearchContext::new);
+
+    public enum WindowType {
+        /**
+         * Objects never expire.
+         */
+        UNBOUNDED,
+        /**
+         * Keep the latest windowSize objects.
+         */
+        COUNT,
+        /**
+         * Keep the objects with st within windowSize time units of the latest object.
+         */
+        TIME
+    }
+
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+    private final int capacity;
+    private final int maxTreeHeight;
+    // Supplies the object store of every new slice
+    private final Supplier<ObjectStore> stores;
+
+    private final WindowType type;
+    private final long windowSize;
+    private final long sliceSize;
+    private final ArrayDeque<Slice> slices;
+    private long count = 0;
+    private long now = Long.MIN_VALUE;
+
+    public WindowedIQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight) {
+        this(x, y, width, height, capacity, maxTreeHeight, WindowType.UNBOUNDED, Long.MAX_VALUE, 1);
+    }
+
+    public WindowedIQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight,
+                             WindowType type, long windowSize, int numSlices) {
+        this(x, y, width, height, capacity, maxTreeHeight, type, windowSize, numSlices, HeapObjectStore::new);
+    }
+
+    /**
+     * @param stores Supplier of an empty object store for every slice, released when the slice is dropped.
+     */
+    public WindowedIQuadTree(double x, double y, double width, double height, int capacity, int maxTreeHeight,
+                             WindowType type, long windowSize, int numSlices, Supplier<ObjectStore> stores) {
+        if (type != WindowType.UNBOUNDED && (windowSize <= 0 || numSlices <= 0))
+            throw new IllegalArgumentException("Window size and slice count must be positive!");
+
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+        this.maxTreeHeight = maxTreeHeight;
+        this.stores = stores;
+        this.type = type;
+        this.windowSize = windowSize;
+        this.sliceSize = type == WindowType.UNBOUNDED ? Long.MAX_VALUE : Math.max(1, windowSize / numSlices);
+        this.slices = new ArrayDeque<>();
+    }
+
+    @Override
+    protected BaseQuadNode<Query, DataObject> getRoot() {
+        throw new RuntimeException("Not implemented!");
+    }
+
+    @Override
+    public boolean insert(DataObject object) {
+        Slice slice = slices.peekLast();
+        if (type == WindowType.TIME) {
+            now = Math.max(now, object.st);
+            long start = Math.floorDiv(object.st, sliceSize) * sliceSize;
+            if (slice == null || slice.start < start) {
+                slice = new Slice(start);
+                slices.addLast(slice);
+            }
+        } else if (slice == null || slice.tree.size() >= sliceSize) {
+            slice = new Slice(count);
+            slices.addLast(slice);
+        }
+
+        if (!slice.tree.insert(object))
+            return false;
+        count++;
+        return true;
+    }
+
+    /**
+     * Drop every slice that has fallen out of the window.
+     *
+     * @return Objects evicted from the window.
+     */
+    public List<DataObject> evict() {
+        List<DataObject> expired = new ArrayList<>();
+        while (!slices.isEmpty() && isExpired(slices.peekFirst())) {
+            Slice slice = slices.pollFirst();
+            count -= slice.tree.size();
+            slice.tree.collectObjects(expired);
+            slice.tree.release();
+        }
+        return expired;
+    }
+
+    /**
+     * Move the time of a time based window forward without inserting an object, then drop the expired slices.
+     *
+     * @param now Current time, in units of DataObject.st.
+     * @return Objects evicted from the window.
+     */
+    public List<DataObject> evict(long now) {
+        if (type == WindowType.TIME)
+            this.now = Math.max(this.now, now);
+        return evict();
+    }
+
+    private boolean isExpired(Slice slice) {
+        if (type == WindowType.COUNT)
+            return count - slice.tree.size() >= windowSize;
+        if (type == WindowType.TIME)
+            return slice.start + sliceSize <= now - windowSize;
+        return false;
+    }
+
+    @Override
+    public boolean remove(DataObject object) {
+        for (Slice slice : slices) {
+            if (slice.tree.remove(object)) {
+                count--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<DataObject> search(Query q) {
+        SearchContext ctx = CONTEXT.get();
+        search(q, ctx);
+        return ctx.toList();
+    }
+
+    /**
+     * Search the kNN of the query over all the slices using the scratch space of the given context.
+     *
+     * @param q   Query to search for.
+     * @param ctx Search context, which must not be shared by threads. Holds the top-k after the search.
+     */
+    public void search(Query q, SearchContext ctx) {
+        ctx.begin(q instanceof CkQuery ? ((CkQuery) q).k : 0);
+
+        // Newest slices first, the top-k found there prunes the traversal of the older ones
+        Iterator<Slice> it = slices.descendingIterator();
+        while (it.hasNext())
+            it.next().tree.searchInto(q, ctx);
+    }
+
+    /**
+     * Number of objects currently in the window.
+     *
+     * @return Count of live objects.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Add the objects of the window to the list, oldest first.
+     */
+    void collectObjects(List<DataObject> out) {
+        for (Slice slice : slices)
+            slice.tree.collectObjects(out);
+    }
+
+    /**
+     * Write the slices and the structure of their trees to a snapshot:
+     * <pre>
+     * int type, long window size, long slice size, long count, long now, int slice count,
+     * then per slice: long start, int object count, int[] object references, the tree of the slice
+     * </pre>
+     */
+    void writeSnapshot(IndexSnapshot.Writer out) throws IOException {
+        out.writeInt(type.ordinal());
+        out.writeLong(windowSize);
+        out.writeLong(sliceSize);
+        out.writeLong(count);
+        out.writeLong(now);
+        out.writeInt(slices.size());
+        List<DataObject> objects = new ArrayList<>();
+        for (Slice slice : slices) {
+            objects.clear();
+            slice.tree.collectObjects(objects);
+            out.writeLong(slice.start);
+            out.writeInt(objects.size());
+            for (DataObject object : objects)
+                out.writeObject(object);
+            slice.tree.writeSnapshot(out);
+        }
+    }
+
+    void readSnapshot(IndexSnapshot.Reader in) throws IOException {
+        if (!slices.isEmpty())
+            throw new IllegalStateException("A snapshot can only be restored into an empty window!");
+        if (in.readInt() != type.ordinal() || in.readLong() != windowSize || in.readLong() != sliceSize)
+            throw new IllegalArgumentException("Snapshot of a window of another type or size!");
+
+        count = in.readLong();
+        now = in.readLong();
+        int numSlices = in.readInt();
+        for (int i = 0; i < numSlices; i++) {
+            Slice slice = new Slice(in.readLong());
+            int numObjects = in.readInt();
+            List<DataObject> objects = new ArrayList<>(numObjects);
+            for (int j = 0; j < numObjects; j++)
+                objects.add(in.readObject());
+            slice.tree.readSnapshot(in, objects);
+            slices.addLast(slice);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Slice slice : slices) {
+            out.append("Slice ").append(slice.start).append(" :\n").append(slice.tree);
+        }
+        return out.toString();
+    }
+
+    private class Slice {
+        private final long start;
+        private final IQuadTree tree;
+
+        private Slice(long start) {
+            this.start = start;
+            this.tree = new IQuadTree(x, y, width, height, capacity, maxTreeHeight, stores.get());
+        }
+    }
+}
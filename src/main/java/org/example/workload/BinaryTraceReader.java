@@ -0,0 +1,163 @@
+package org.example.workload;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.helpers.TermDictionary;
+import org.example.models.CkQuery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reader of a trace written by {@link BinaryTraceWriter}. The records are decoded straight from a memory mapped window
+ * of the file, which slides over traces larger than the address space a single mapping can cover.
+ * <p>
+ * The keywords of the trace are interned into the dictionary of the index being fed, so the term IDs of the events are
+ * set when they are read and the index does not have to intern them again. The keywords of an event are a view of
+ * its term IDs.
+ */
+public class BinaryTraceReader implements Iterator<StreamEvent>, Closeable {
+    private static final long WINDOW_SIZE = 1L << 28;
+    private static final StreamEvent.Type[] TYPES = StreamEvent.Type.values();
+
+    private final FileChannel channel;
+    private final TermDictionary dictionary;
+    // Term ID in the dictionary of each term ID of the trace, null if they are equal
+    private final int[] remap;
+    private final long recordsEnd;
+    private final long numRecords;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position = BinaryTraceWriter.HEADER_SIZE;
+    private long read;
+
+    /**
+     * Open a trace.
+     *
+     * @param path       Trace file.
+     * @param dictionary Dictionary to intern the keywords of the trace into, usually the one of the index.
+     */
+    public BinaryTraceReader(Path path, TermDictionary dictionary) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.dictionary = dictionary;
+        try {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryTraceWriter.HEADER_SIZE);
+            if (header.getInt() != BinaryTraceWriter.MAGIC)
+                throw new IOException(path + " is not a binary trace");
+            int version = header.getInt();
+            if (version != BinaryTraceWriter.VERSION)
+                throw new IOException("Unsupported trace version " + version);
+            this.numRecords = header.getLong();
+            this.recordsEnd = header.getLong();
+            this.remap = readDictionary(recordsEnd);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether the file starts like a binary trace.
+     */
+    public static boolean isBinaryTrace(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) ;
+            return !magic.hasRemaining() && magic.getInt(0) == BinaryTraceWriter.MAGIC;
+        }
+    }
+
+    private int[] readDictionary(long offset) throws IOException {
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
+        int count = in.getInt();
+        int[] ids = new int[count];
+        boolean identity = true;
+        for (int i = 0; i < count; i++) {
+            byte[] keyword = new byte[in.getInt()];
+            in.get(keyword);
+            ids[i] = dictionary.intern(new String(keyword, StandardCharsets.UTF_8));
+            identity &= ids[i] == i;
+        }
+        return identity ? null : ids;
+    }
+
+    public long size() {
+        return numRecords;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return read < numRecords;
+    }
+
+    @Override
+    public StreamEvent next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        ByteBuffer in = window(BinaryTraceWriter.RECORD_SIZE + 4 * BinaryTraceWriter.MAX_TERMS);
+        StreamEvent.Type type = TYPES[in.get()];
+        int[] terms = new int[in.get() & 0xFF];
+        in.getShort();
+        int id = in.getInt();
+        int k = in.getInt();
+        double x = in.getDouble();
+        double y = in.getDouble();
+        long st = in.getLong();
+        long et = in.getLong();
+        for (int i = 0; i < terms.length; i++)
+            terms[i] = in.getInt();
+        if (remap != null) {
+            for (int i = 0; i < terms.length; i++)
+                terms[i] = remap[terms[i]];
+            Arrays.sort(terms);
+        }
+
+        position = windowStart + in.position();
+        read++;
+
+        if (type == StreamEvent.Type.QUERY) {
+            CkQuery query = new CkQuery(id, dictionary.keywords(terms), x, y, k, st, et);
+            query.setTerms(terms);
+            return StreamEvent.query(query);
+        }
+        DataObject object = new DataObject(id, new Point(x, y), dictionary.keywords(terms), st, et);
+        object.setTerms(terms);
+        return type == StreamEvent.Type.PRELOAD ? StreamEvent.preload(object) : StreamEvent.object(object);
+    }
+
+    /**
+     * Mapped window positioned at the next record, holding at least the given number of bytes or the rest of the
+     * records.
+     */
+    private ByteBuffer window(int bytes) {
+        long needed = Math.min(bytes, recordsEnd - position);
+        if (window == null || position + needed > windowStart + window.limit()) {
+            try {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(WINDOW_SIZE, recordsEnd - position));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        window.position((int) (position - windowStart));
+        return window;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
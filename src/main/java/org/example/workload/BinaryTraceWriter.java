@@ -0,0 +1,113 @@
+package org.example.workload;
+
+import org.example.base.DataObject;
+import org.example.helpers.TermDictionary;
+import org.example.models.CkQuery;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writer of the binary trace format read by {@link BinaryTraceReader}. A trace is a header, the records in stream
+ * order and the keyword dictionary, which is only known once all the records are written:
+ * <pre>
+ * header      int magic, int version, long record count, long dictionary offset
+ * record      byte type, byte term count, short unused, int id, int k, double x, double y, long st, long et,
+ *             int[term count] sorted term IDs
+ * dictionary  int term count, then per term ID: int length, UTF-8 bytes of the keyword
+ * </pre>
+ * All the values are big-endian.
+ */
+public class BinaryTraceWriter implements Closeable {
+    static final int MAGIC = 0x434B5154;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int RECORD_SIZE = 44;
+    static final int MAX_TERMS = 255;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final TermDictionary dictionary = new TermDictionary();
+    private long records;
+
+    public BinaryTraceWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // The header is written last, when the counts are known
+        buffer.put(new byte[HEADER_SIZE]);
+    }
+
+    public void write(StreamEvent event) throws IOException {
+        if (event.type == StreamEvent.Type.QUERY) {
+            CkQuery q = event.query;
+            write(event.type, q.id, q.k, q.location.x, q.location.y, q.st, q.et, dictionary.intern(q.keywords));
+        } else {
+            DataObject o = event.object;
+            write(event.type, o.id, 0, o.location.x, o.location.y, o.st, o.et, dictionary.intern(o.keywords));
+        }
+    }
+
+    private void write(StreamEvent.Type type, int id, int k, double x, double y, long st, long et, int[] terms)
+            throws IOException {
+        if (terms.length > MAX_TERMS)
+            throw new IllegalArgumentException("At most " + MAX_TERMS + " keywords per record but got " + terms.length);
+
+        reserve(RECORD_SIZE + 4 * terms.length);
+        buffer.put((byte) type.ordinal());
+        buffer.put((byte) terms.length);
+        buffer.putShort((short) 0);
+        buffer.putInt(id);
+        buffer.putInt(k);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+        buffer.putLong(st);
+        buffer.putLong(et);
+        for (int term : terms)
+            buffer.putInt(term);
+        records++;
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+            long dictionaryOffset = channel.position();
+
+            reserve(4);
+            buffer.putInt(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                byte[] keyword = dictionary.term(id).getBytes(StandardCharsets.UTF_8);
+                if (buffer.capacity() < 4 + keyword.length)
+                    throw new IllegalArgumentException("Keyword of " + keyword.length + " bytes is too long");
+                reserve(4 + keyword.length);
+                buffer.putInt(keyword.length);
+                buffer.put(keyword);
+            }
+            drain();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(records).putLong(dictionaryOffset);
+            header.flip();
+            channel.write(header, 0);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.example.workload;
+
+import org.example.CkQST;
+import org.example.CkQSTConfig;
+import org.example.ConcurrentCkQST;
+import org.example.ShardedCkQST;
+import org.example.SpatialKeywordIndex;
+import org.example.base.DataObject;
+import org.example.base.Query;
+import org.example.helpers.TermDictionary;
+import org.example.metrics.IndexMetrics;
+import org.example.metrics.IndexMetricsMXBean;
+import org.example.structures.WindowedIQuadTree;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Feeds a generated or recorded stream through a CkQST and reports the sustained throughput, the per-object latency
+ * percentiles and the heap footprint at given numbers of streamed objects.
+ * <p>
+ * Options are given as --name=value:
+ * <pre>
+ * --trace=FILE          replay a recorded text or binary trace instead of generating one
+ * --delimiter=C         field delimiter of a text trace (tab)
+ * --record=FILE         write the generated stream as a trace instead of running it, binary if FILE ends with .bin
+ * --objects=N           streamed objects (100000000)
+ * --preload=N           objects preloaded before the queries (100000)
+ * --queries=N           queries interleaved with the objects (100000)
+ * --vocabulary=N        distinct keywords (10000)
+ * --skew=S              Zipf exponent of the keywords (1.0)
+ * --clusters=N          location clusters (100)
+ * --spread=S            std deviation of a cluster as a fraction of the range (0.01)
+ * --object-keywords=N   max keywords of an object (5)
+ * --query-keywords=N    max keywords of a query (3)
+ * --k=N                 neighbours of a query (10)
+ * --lifetime=N          time units a query stays registered (unbounded)
+ * --seed=N              seed of the generated stream (42)
+ * --range=N             side of the square space (10000)
+ * --height=N            max height of the quadtrees (9)
+ * --off-heap=BOOL       keep the objects of the window in direct memory (false)
+ * --window=TYPE:SIZE:SLICES   sliding window, e.g. COUNT:1000000:8 (unbounded)
+ * --engine=NAME         ckqst, concurrent or sharded (ckqst)
+ * --threads=N           workers of the concurrent and sharded engines (cores)
+ * --batch=N             objects per insertObjects call, 1 to call insertObject (1)
+ * --checkpoints=N,...   streamed object counts to report at (1000000,10000000,100000000)
+ * </pre>
+ * With -Dckqst.metrics=true, the counters of the {@link IndexMetrics} are reported at every checkpoint as well.
+ */
+public class StreamDriver {
+    private final SpatialKeywordIndex<Query, DataObject> index;
+    private final int batchSize;
+    private final long[] checkpoints;
+    private final PrintStream out;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final List<DataObject> batch = new ArrayList<>();
+    private long streamed;
+    private long queries;
+    private long matches;
+    private int nextCheckpoint;
+    private long startNanos;
+    private long lastNanos;
+    private long lastStreamed;
+
+    public StreamDriver(SpatialKeywordIndex<Query, DataObject> index, int batchSize, long[] checkpoints,
+                        PrintStream out) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be positive!");
+        this.index = index;
+        this.batchSize = batchSize;
+        this.checkpoints = checkpoints.clone();
+        Arrays.sort(this.checkpoints);
+        this.out = out;
+    }
+
+    /**
+     * Feed the events to the index in stream order, reporting at each checkpoint and at the end.
+     *
+     * @param events Stream of events, in time order.
+     */
+    public void run(Iterator<StreamEvent> events) {
+        startNanos = lastNanos = System.nanoTime();
+        while (events.hasNext()) {
+            StreamEvent event = events.next();
+            switch (event.type) {
+                case PRELOAD:
+                    index.preloadObject(event.object);
+                    break;
+                case QUERY:
+                    // Queries see every object streamed before them
+                    flush();
+                    index.insertQuery(event.query);
+                    queries++;
+                    break;
+                case OBJECT:
+                    batch.add(event.object);
+                    if (batch.size() >= batchSize)
+                        flush();
+                    break;
+            }
+        }
+        flush();
+        report("final");
+    }
+
+    private void flush() {
+        if (batch.isEmpty())
+            return;
+
+        long start = System.nanoTime();
+        Collection<Query> matched = batchSize == 1 ? index.insertObject(batch.get(0)) : index.insertObjects(batch);
+        long latency = System.nanoTime() - start;
+
+        // Every object of a batch waits for the whole batch
+        for (int i = 0; i < batch.size(); i++)
+            latencies.record(latency);
+        matches += matched.size();
+        streamed += batch.size();
+        batch.clear();
+
+        while (nextCheckpoint < checkpoints.length && streamed >= checkpoints[nextCheckpoint]) {
+            report(String.valueOf(checkpoints[nextCheckpoint]));
+            nextCheckpoint++;
+        }
+    }
+
+    private void report(String label) {
+        long now = System.nanoTime();
+        double elapsed = (now - startNanos) / 1e9;
+        double interval = (now - lastNanos) / 1e9;
+        out.printf(Locale.ROOT, "[%s] objects=%d queries=%d matches=%d elapsed=%.1fs throughput=%.0f/s " +
+                        "recent=%.0f/s p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus heap=%.1fMB%n",
+                label, streamed, queries, matches, elapsed, streamed / Math.max(elapsed, 1e-9),
+                (streamed - lastStreamed) / Math.max(interval, 1e-9), latencies.percentile(0.5) / 1e3,
+                latencies.percentile(0.99) / 1e3, latencies.percentile(0.999) / 1e3, latencies.max() / 1e3,
+                usedHeap() / 1048576d);
+        if (IndexMetrics.ENABLED) {
+            IndexMetricsMXBean metrics = IndexMetrics.get();
+            out.printf(Locale.ROOT, "[%s] routed=%s postingLists=%d blocks=%d spatialChecks=%d falsePositives=%.3f " +
+                            "reevaluations=%d knn=%d popped=%d signatureChecks=%d%n",
+                    label, Arrays.toString(metrics.getObjectsRoutedPerHeight()), metrics.getPostingListsProbed(),
+                    metrics.getBlocksScanned(), metrics.getSpatialChecks(), metrics.getSpatialFalsePositiveRate(),
+                    metrics.getQueryReevaluations(), metrics.getKnnSearches(), metrics.getNodesPopped(),
+                    metrics.getSignatureChecks());
+        }
+        out.flush();
+
+        // The collection for the heap footprint is not part of the throughput
+        lastNanos = System.nanoTime();
+        startNanos += lastNanos - now;
+        lastStreamed = streamed;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        int range = Integer.parseInt(options.getOrDefault("range", "10000"));
+        int height = Integer.parseInt(options.getOrDefault("height", "9"));
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        WindowedIQuadTree.WindowType windowType = WindowedIQuadTree.WindowType.UNBOUNDED;
+        long windowSize = Long.MAX_VALUE;
+        int numSlices = 1;
+        if (options.containsKey("window")) {
+            String[] window = options.get("window").split(":");
+            windowType = WindowedIQuadTree.WindowType.valueOf(window[0].toUpperCase(Locale.ROOT));
+            windowSize = Long.parseLong(window[1]);
+            numSlices = window.length > 2 ? Integer.parseInt(window[2]) : 8;
+        }
+
+        CkQSTConfig config = new CkQSTConfig(range, range, height)
+                .withOffHeap(Boolean.parseBoolean(options.getOrDefault("off-heap", "false")));
+        SpatialKeywordIndex<Query, DataObject> index;
+        switch (options.getOrDefault("engine", "ckqst")) {
+            case "ckqst":
+                index = new CkQST(config, windowType, windowSize, numSlices);
+                break;
+            case "concurrent":
+                index = new ConcurrentCkQST(config, windowType, windowSize, numSlices, threads);
+                break;
+            case "sharded":
+                index = new ShardedCkQST(config, windowType, windowSize, numSlices, threads);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown engine " + options.get("engine"));
+        }
+
+        long[] checkpoints = Arrays.stream(options.getOrDefault("checkpoints", "1000000,10000000,100000000")
+                .split(",")).filter(c -> !c.isEmpty()).mapToLong(Long::parseLong).toArray();
+        StreamDriver driver = new StreamDriver(index, Integer.parseInt(options.getOrDefault("batch", "1")),
+                checkpoints, System.out);
+
+        try {
+            if (options.containsKey("trace") && BinaryTraceReader.isBinaryTrace(Paths.get(options.get("trace")))) {
+                TermDictionary dictionary = index instanceof CkQST ? ((CkQST) index).getDictionary()
+                        : ((ShardedCkQST) index).getDictionary();
+                try (BinaryTraceReader reader = new BinaryTraceReader(Paths.get(options.get("trace")), dictionary)) {
+                    driver.run(reader);
+                }
+                return;
+            }
+            if (options.containsKey("trace")) {
+                char delimiter = options.containsKey("delimiter") ? options.get("delimiter").charAt(0) : '\t';
+                try (TraceReader reader = new TraceReader(Files.newBufferedReader(Paths.get(options.get("trace")),
+                        StandardCharsets.UTF_8), delimiter)) {
+                    driver.run(reader);
+                }
+                return;
+            }
+
+            StreamGenerator generator = new StreamGenerator(
+                    Long.parseLong(options.getOrDefault("seed", "42")),
+                    range,
+                    Integer.parseInt(options.getOrDefault("vocabulary", "10000")),
+                    Double.parseDouble(options.getOrDefault("skew", "1.0")),
+                    Integer.parseInt(options.getOrDefault("clusters", "100")),
+                    Double.parseDouble(options.getOrDefault("spread", "0.01")),
+                    Integer.parseInt(options.getOrDefault("object-keywords", "5")),
+                    Integer.parseInt(options.getOrDefault("query-keywords", "3")),
+                    Integer.parseInt(options.getOrDefault("k", "10")),
+                    Long.parseLong(options.getOrDefault("lifetime", String.valueOf(Long.MAX_VALUE))),
+                    Long.parseLong(options.getOrDefault("preload", "100000")),
+                    Long.parseLong(options.getOrDefault("objects", "100000000")),
+                    Long.parseLong(options.getOrDefault("queries", "100000")));
+
+            if (options.containsKey("record") && options.get("record").endsWith(".bin")) {
+                try (BinaryTraceWriter writer = new BinaryTraceWriter(Paths.get(options.get("record")))) {
+                    while (generator.hasNext())
+                        writer.write(generator.next());
+                }
+                return;
+            }
+            if (options.containsKey("record")) {
+                try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(options.get("record")),
+                        StandardCharsets.UTF_8)) {
+                    while (generator.hasNext()) {
+                        writer.write(TraceReader.format(generator.next()));
+                        writer.newLine();
+                    }
+                }
+                return;
+            }
+            driver.run(generator);
+        } finally {
+            if (index instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) index).close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+}
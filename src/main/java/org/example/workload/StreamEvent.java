@@ -0,0 +1,58 @@
+package org.example.workload;
+
+import org.example.base.DataObject;
+import org.example.models.CkQuery;
+
+/**
+ * One element of an object and query stream, in the order it is fed to a {@link org.example.SpatialKeywordIndex}.
+ */
+public class StreamEvent {
+    public enum Type {
+        /**
+         * Object loaded before the queries are registered, fed to preloadObject.
+         */
+        PRELOAD,
+        /**
+         * Query registration, fed to insertQuery.
+         */
+        QUERY,
+        /**
+         * Streamed object, fed to insertObject.
+         */
+        OBJECT
+    }
+
+    public final Type type;
+    public final long time;
+    public final DataObject object;
+    public final CkQuery query;
+
+    private StreamEvent(Type type, long time, DataObject object, CkQuery query) {
+        this.type = type;
+        this.time = time;
+        this.object = object;
+        this.query = query;
+    }
+
+    public static StreamEvent preload(DataObject object) {
+        return new StreamEvent(Type.PRELOAD, object.st, object, null);
+    }
+
+    public static StreamEvent object(DataObject object) {
+        return new StreamEvent(Type.OBJECT, object.st, object, null);
+    }
+
+    public static StreamEvent query(CkQuery query) {
+        return new StreamEvent(Type.QUERY, query.st, null, query);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamEvent{" +
+                "type=" + type +
+                ", time=" + time +
+                ", object=" + object +
+                ", query=" + query +
+                '}';
+    }
+}
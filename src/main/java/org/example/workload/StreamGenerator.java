@@ -0,0 +1,138 @@
+package org.example.workload;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.models.CkQuery;
+
+import java.util.*;
+
+/**
+ * Synthetic stream of objects and queries. Keywords are drawn from a Zipf distribution over a vocabulary and locations
+ * are Gaussian clusters around uniformly placed centers. Every object advances the time by one unit: the preloaded
+ * objects come first, then the streamed objects with the queries interleaved uniformly at random.
+ */
+public class StreamGenerator implements Iterator<StreamEvent> {
+    private final Random random;
+    private final double range;
+    private final double[] cumulative;
+    private final double[] centerX;
+    private final double[] centerY;
+    private final double spread;
+    private final int keywordsPerObject;
+    private final int keywordsPerQuery;
+    private final int k;
+    private final long queryLifetime;
+
+    private final long numPreload;
+    private final long numObjects;
+    private long remainingQueries;
+    private long emittedObjects;
+    private int nextQueryId;
+
+    /**
+     * @param seed              Seed of the stream, equal seeds give equal streams.
+     * @param range             Side of the square space.
+     * @param vocabulary        Number of distinct keywords.
+     * @param skew              Zipf exponent of the keyword frequencies, 0 for uniform keywords.
+     * @param numClusters       Number of location clusters.
+     * @param spread            Standard deviation of a cluster, as a fraction of the range.
+     * @param keywordsPerObject Max number of keywords of an object, each object has 1 to this many.
+     * @param keywordsPerQuery  Max number of keywords of a query, each query has 1 to this many.
+     * @param k                 Number of neighbours of a query.
+     * @param queryLifetime     Time units a query stays registered.
+     * @param numPreload        Number of objects preloaded before the queries.
+     * @param numObjects        Number of streamed objects.
+     * @param numQueries        Number of queries interleaved with the streamed objects.
+     */
+    public StreamGenerator(long seed, double range, int vocabulary, double skew, int numClusters, double spread,
+                           int keywordsPerObject, int keywordsPerQuery, int k, long queryLifetime, long numPreload,
+                           long numObjects, long numQueries) {
+        if (vocabulary <= 0 || numClusters <= 0 || keywordsPerObject <= 0 || keywordsPerQuery <= 0 || k <= 0)
+            throw new IllegalArgumentException("Vocabulary, cluster, keyword and neighbour counts must be positive!");
+
+        this.random = new Random(seed);
+        this.range = range;
+        this.spread = spread * range;
+        this.keywordsPerObject = Math.min(keywordsPerObject, vocabulary);
+        this.keywordsPerQuery = Math.min(keywordsPerQuery, vocabulary);
+        this.k = k;
+        this.queryLifetime = queryLifetime;
+        this.numPreload = numPreload;
+        this.numObjects = numObjects;
+        this.remainingQueries = numQueries;
+
+        this.cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int i = 0; i < vocabulary; i++) {
+            sum += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+
+        this.centerX = new double[numClusters];
+        this.centerY = new double[numClusters];
+        for (int i = 0; i < numClusters; i++) {
+            centerX[i] = random.nextDouble() * range;
+            centerY[i] = random.nextDouble() * range;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return emittedObjects < numPreload + numObjects || remainingQueries > 0;
+    }
+
+    @Override
+    public StreamEvent next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        long time = emittedObjects;
+        if (emittedObjects < numPreload)
+            return StreamEvent.preload(nextObject(time));
+
+        // Draw a query with the probability of the remaining queries among the remaining events
+        long remainingObjects = numPreload + numObjects - emittedObjects;
+        if (remainingQueries > 0 && random.nextDouble() * (remainingObjects + remainingQueries) < remainingQueries) {
+            remainingQueries--;
+            Point location = nextLocation();
+            long et = queryLifetime == Long.MAX_VALUE ? Long.MAX_VALUE : time + queryLifetime;
+            return StreamEvent.query(new CkQuery(nextQueryId++, nextKeywords(keywordsPerQuery), location.x,
+                    location.y, k, time, et));
+        }
+        return StreamEvent.object(nextObject(time));
+    }
+
+    private DataObject nextObject(long time) {
+        DataObject object = new DataObject((int) emittedObjects, nextLocation(), nextKeywords(keywordsPerObject),
+                time, Long.MAX_VALUE);
+        emittedObjects++;
+        return object;
+    }
+
+    private Point nextLocation() {
+        int cluster = random.nextInt(centerX.length);
+        return new Point(clamp(centerX[cluster] + random.nextGaussian() * spread),
+                clamp(centerY[cluster] + random.nextGaussian() * spread));
+    }
+
+    private double clamp(double value) {
+        // The indexes cover [0, range), so the upper bound is excluded
+        return Math.max(0, Math.min(Math.nextDown(range), value));
+    }
+
+    private List<String> nextKeywords(int max) {
+        int count = 1 + random.nextInt(max);
+        List<String> keywords = new ArrayList<>(count);
+        while (keywords.size() < count) {
+            String keyword = "w" + nextTerm();
+            if (!keywords.contains(keyword))
+                keywords.add(keyword);
+        }
+        return keywords;
+    }
+
+    private int nextTerm() {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return i >= 0 ? i : -i - 1;
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.workload;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts a text trace (see {@link TraceReader}) into the binary trace format.
+ * <p>
+ * Usage: TraceConverter INPUT OUTPUT [DELIMITER], the delimiter being a tab by default, e.g. ',' for CSV.
+ */
+public class TraceConverter {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2)
+            throw new IllegalArgumentException("Usage: TraceConverter INPUT OUTPUT [DELIMITER]");
+
+        char delimiter = args.length > 2 ? args[2].charAt(0) : '\t';
+        long records = convert(Paths.get(args[0]), Paths.get(args[1]), delimiter);
+        System.out.println("Converted " + records + " records");
+    }
+
+    /**
+     * Convert a text trace.
+     *
+     * @param input     Text trace.
+     * @param output    Binary trace to write.
+     * @param delimiter Field delimiter of the text trace.
+     * @return Number of converted records.
+     */
+    public static long convert(Path input, Path output, char delimiter) throws IOException {
+        long records = 0;
+        try (TraceReader reader = new TraceReader(Files.newBufferedReader(input, StandardCharsets.UTF_8), delimiter);
+             BinaryTraceWriter writer = new BinaryTraceWriter(output)) {
+            while (reader.hasNext()) {
+                writer.write(reader.next());
+                records++;
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,130 @@
+package org.example.workload;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.models.CkQuery;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
+
+/**
+ * Reader of a recorded text trace, one event per line in time order, with tab (or another delimiter) separated fields:
+ * <pre>
+ * P|O  id  x  y  st  et  keywords       preloaded or streamed object
+ * Q    id  x  y  st  et  k  keywords    query
+ * </pre>
+ * Keywords are separated by spaces, blank lines and lines starting with '#' are skipped.
+ */
+public class TraceReader implements Iterator<StreamEvent>, Closeable {
+    private static final Pattern KEYWORD_SEPARATOR = Pattern.compile(" +");
+
+    private final BufferedReader reader;
+    private final Pattern separator;
+    private StreamEvent next;
+    private long lineNumber;
+
+    public TraceReader(BufferedReader reader) {
+        this(reader, '\t');
+    }
+
+    public TraceReader(BufferedReader reader, char delimiter) {
+        this.reader = reader;
+        this.separator = Pattern.compile(Pattern.quote(String.valueOf(delimiter)));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null)
+            next = readEvent();
+        return next != null;
+    }
+
+    @Override
+    public StreamEvent next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        StreamEvent event = next;
+        next = null;
+        return event;
+    }
+
+    private StreamEvent readEvent() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.charAt(0) == '#')
+                    continue;
+                return parse(line);
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private StreamEvent parse(String line) {
+        String[] fields = separator.split(line, -1);
+        try {
+            String type = fields[0];
+            int id = Integer.parseInt(fields[1]);
+            double x = Double.parseDouble(fields[2]);
+            double y = Double.parseDouble(fields[3]);
+            long st = Long.parseLong(fields[4]);
+            long et = Long.parseLong(fields[5]);
+
+            switch (type) {
+                case "P":
+                    return StreamEvent.preload(new DataObject(id, new Point(x, y), keywords(fields[6]), st, et));
+                case "O":
+                    return StreamEvent.object(new DataObject(id, new Point(x, y), keywords(fields[6]), st, et));
+                case "Q":
+                    return StreamEvent.query(new CkQuery(id, keywords(fields[7]), x, y, Integer.parseInt(fields[6]),
+                            st, et));
+                default:
+                    throw new IllegalArgumentException("Unknown event type " + type + " at line " + lineNumber);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed event at line " + lineNumber + ": " + line, e);
+        }
+    }
+
+    private static List<String> keywords(String field) {
+        return Arrays.asList(KEYWORD_SEPARATOR.split(field.trim()));
+    }
+
+    /**
+     * Format an event as a line of a tab separated trace.
+     *
+     * @param event Event to format.
+     * @return Line without the line terminator.
+     */
+    public static String format(StreamEvent event) {
+        StringBuilder out = new StringBuilder();
+        if (event.type == StreamEvent.Type.QUERY) {
+            CkQuery q = event.query;
+            out.append("Q\t").append(q.id).append('\t').append(q.location.x).append('\t').append(q.location.y)
+                    .append('\t').append(q.st).append('\t').append(q.et).append('\t').append(q.k).append('\t');
+            out.append(String.join(" ", q.keywords));
+        } else {
+            DataObject o = event.object;
+            out.append(event.type == StreamEvent.Type.PRELOAD ? "P\t" : "O\t").append(o.id).append('\t')
+                    .append(o.location.x).append('\t').append(o.location.y).append('\t').append(o.st).append('\t')
+                    .append(o.et).append('\t');
+            out.append(String.join(" ", o.keywords));
+        }
+        return out.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.models.CkQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CkQSTTest {
+    private static CkQuery query(int id) {
+        return new CkQuery(id, Arrays.asList("a", "b"), 100, 100, 2, 0, Long.MAX_VALUE);
+    }
+
+    private static DataObject object(int id, double x, double y) {
+        return new DataObject(id, new Point(x, y), Arrays.asList("a", "b"), id, id);
+    }
+
+    private static CkQST engine() {
+        CkQST index = new CkQST(1000, 1000, 9);
+        index.preloadObject(object(1, 500, 500));
+        index.preloadObject(object(2, 600, 600));
+        return index;
+    }
+
+    @Test
+    void removesQueryThroughEqualInstance() {
+        CkQST index = engine();
+        index.insertQuery(query(7));
+        assertTrue(index.insertObject(object(3, 101, 101)).contains(query(7)));
+
+        assertTrue(index.removeQuery(query(7)));
+        assertFalse(index.removeQuery(query(7)));
+        assertTrue(index.insertObject(object(4, 100, 100)).isEmpty());
+    }
+
+    @Test
+    void expiresQueryRegisteredAgainAfterRemoval() {
+        CkQST index = engine();
+        index.insertQuery(query(7));
+        assertTrue(index.removeQuery(query(7)));
+        CkQuery again = new CkQuery(7, Arrays.asList("a", "b"), 100, 100, 2, 0, 10);
+        index.insertQuery(again);
+
+        assertTrue(index.insertObject(object(9, 101, 101)).contains(again));
+        assertTrue(index.insertObject(object(11, 101, 101)).isEmpty());
+        assertFalse(index.removeQuery(again));
+    }
+
+    @Test
+    void rejectsDuplicateQueryId() {
+        CkQST index = engine();
+        index.insertQuery(query(7));
+        assertThrows(IllegalArgumentException.class, () -> index.insertQuery(query(7)));
+    }
+
+    @Test
+    void sharesQueryInstanceBetweenEngines() {
+        CkQST one = engine();
+        CkQST two = engine();
+        CkQuery query = query(7);
+        one.insertQuery(query);
+        two.insertQuery(query(8));
+        two.insertQuery(query);
+
+        assertTrue(one.removeQuery(query));
+        assertTrue(two.insertObject(object(3, 101, 101)).contains(query));
+        assertTrue(two.removeQuery(query));
+        assertTrue(two.removeQuery(query(8)));
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.models.CkQuery;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedCkQSTTest {
+    private static CkQuery query(int id, long et) {
+        return new CkQuery(id, Arrays.asList("a", "b"), 100, 100, 2, 0, et);
+    }
+
+    private static DataObject object(int id, double x, double y) {
+        return new DataObject(id, new Point(x, y), Arrays.asList("a", "b"), id, id);
+    }
+
+    private static ShardedCkQST engine() {
+        ShardedCkQST index = new ShardedCkQST(1000, 1000, 9, 4);
+        index.preloadObject(object(1, 500, 500));
+        index.preloadObject(object(2, 900, 900));
+        return index;
+    }
+
+    @Test
+    void removesQueryThroughEqualInstance() {
+        try (ShardedCkQST index = engine()) {
+            index.insertQuery(query(7, Long.MAX_VALUE));
+            assertTrue(index.insertObject(object(3, 101, 101)).contains(query(7, Long.MAX_VALUE)));
+
+            assertTrue(index.removeQuery(query(7, Long.MAX_VALUE)));
+            assertFalse(index.removeQuery(query(7, Long.MAX_VALUE)));
+            assertTrue(index.insertObject(object(4, 100, 100)).isEmpty());
+        }
+    }
+
+    @Test
+    void rejectsDuplicateQueryId() {
+        try (ShardedCkQST index = engine()) {
+            index.insertQuery(query(7, Long.MAX_VALUE));
+            assertThrows(IllegalArgumentException.class, () -> index.insertQuery(query(7, Long.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    void expiresQueryRegisteredAgainAfterRemoval() {
+        try (ShardedCkQST index = engine()) {
+            index.insertQuery(query(7, Long.MAX_VALUE));
+            assertTrue(index.removeQuery(query(7, Long.MAX_VALUE)));
+            CkQuery again = query(7, 10);
+            index.insertQuery(again);
+
+            assertTrue(index.insertObject(object(9, 101, 101)).contains(again));
+            assertTrue(index.insertObject(object(11, 101, 101)).isEmpty());
+            assertFalse(index.removeQuery(again));
+        }
+    }
+}
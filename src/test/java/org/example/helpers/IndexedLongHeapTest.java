@@ -0,0 +1,43 @@
+package org.example.helpers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexedLongHeapTest {
+    @Test
+    void matchesSortedReferenceUnderRandomChurn() {
+        Random random = new Random(42);
+        IndexedLongHeap heap = new IndexedLongHeap();
+        Map<Integer, Long> reference = new HashMap<>();
+        for (int step = 0; step < 100_000; step++) {
+            int key = random.nextInt(500);
+            int op = random.nextInt(3);
+            if (op == 0 && !reference.containsKey(key)) {
+                long priority = random.nextInt(1000);
+                heap.add(key, priority);
+                reference.put(key, priority);
+            } else if (op == 1) {
+                assertEquals(reference.remove(key) != null, heap.remove(key));
+            } else if (!reference.isEmpty()) {
+                long min = Collections.min(reference.values());
+                assertEquals(min, heap.peekPriority());
+                int polled = heap.poll();
+                assertEquals(Long.valueOf(min), reference.remove(polled));
+            }
+            assertEquals(reference.size(), heap.size());
+        }
+    }
+
+    @Test
+    void rejectsKeyAlreadyInHeap() {
+        IndexedLongHeap heap = new IndexedLongHeap();
+        heap.add(3, 10);
+        assertThrows(IllegalArgumentException.class, () -> heap.add(3, 5));
+        assertTrue(heap.remove(3));
+        assertFalse(heap.contains(3));
+        assertTrue(heap.isEmpty());
+    }
+}
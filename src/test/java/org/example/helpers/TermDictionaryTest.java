@@ -0,0 +1,37 @@
+package org.example.helpers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermDictionaryTest {
+    @Test
+    void readsKeywordsWhileInterning() throws InterruptedException {
+        TermDictionary dictionary = new TermDictionary();
+        int terms = 200_000;
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int seen = 0;
+            while (seen < terms) {
+                int size = dictionary.size();
+                for (int id = seen; id < size; id++) {
+                    if (!("k" + id).equals(dictionary.term(id)) || dictionary.lookup("k" + id) != id) {
+                        failure.set("Term " + id + " read as " + dictionary.term(id));
+                        return;
+                    }
+                }
+                seen = size;
+            }
+        });
+        reader.start();
+        for (int id = 0; id < terms; id++)
+            assertEquals(id, dictionary.intern("k" + id));
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(-1, dictionary.lookup("missing"));
+        assertThrows(IndexOutOfBoundsException.class, () -> dictionary.term(terms));
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.structures;
+
+import org.example.CkQST;
+import org.example.base.DataObject;
+import org.example.base.Point;
+import org.example.base.Query;
+import org.example.models.CkQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexSnapshotTest {
+    private static final List<String> VOCABULARY = Arrays.asList("a", "b", "c", "d");
+
+    @TempDir
+    Path dir;
+
+    private static CkQST engine() {
+        return new CkQST(1000, 1000, 9, WindowedIQuadTree.WindowType.COUNT, 300, 4);
+    }
+
+    private static DataObject object(Random random, int id) {
+        return new DataObject(id, new Point(random.nextInt(1000), random.nextInt(1000)), keywords(random), id, id);
+    }
+
+    private static CkQuery query(Random random, int id, long st) {
+        return new CkQuery(id, keywords(random), random.nextInt(1000), random.nextInt(1000), 1 + random.nextInt(5),
+                st, st + 1000);
+    }
+
+    private static List<String> keywords(Random random) {
+        List<String> keywords = new ArrayList<>(VOCABULARY);
+        Collections.shuffle(keywords, random);
+        return new ArrayList<>(keywords.subList(0, 1 + random.nextInt(2)));
+    }
+
+    private static Set<Integer> ids(Collection<?> items) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Object item : items)
+            ids.add(item instanceof Query ? ((Query) item).id : ((DataObject) item).id);
+        return ids;
+    }
+
+    @Test
+    void restoresIndexesEqualToSnapshotted() throws IOException {
+        Random random = new Random(7);
+        CkQST original = engine();
+        Map<Integer, CkQuery> queries = new HashMap<>();
+        int id = 0;
+        for (; id < 400; id++)
+            original.preloadObject(object(random, id));
+        for (; id < 1200; id++) {
+            if (id % 10 == 0) {
+                CkQuery query = query(random, id, id);
+                original.insertQuery(query);
+                queries.put(query.id, query);
+            } else
+                original.insertObject(object(random, id));
+        }
+
+        Path snapshot = dir.resolve("snapshot");
+        original.snapshot(snapshot);
+        CkQST restored = engine();
+        Map<Integer, CkQuery> restoredQueries = new HashMap<>();
+        for (CkQuery query : restored.restore(snapshot))
+            restoredQueries.put(query.id, query);
+
+        queries.values().removeIf(query -> query.et < 1200);
+        assertEquals(queries.keySet(), restoredQueries.keySet());
+        for (CkQuery query : queries.values()) {
+            CkQuery copy = restoredQueries.get(query.id);
+            assertEquals(query.sr, copy.sr);
+            assertEquals(ids(query.getResults()), ids(copy.getResults()));
+        }
+
+        // Both indexes keep matching the same queries
+        long seed = random.nextLong();
+        Random one = new Random(seed);
+        Random two = new Random(seed);
+        for (; id < 1600; id++)
+            assertEquals(ids(original.insertObject(object(one, id))), ids(restored.insertObject(object(two, id))));
+    }
+}
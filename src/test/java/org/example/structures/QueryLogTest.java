@@ -0,0 +1,126 @@
+package org.example.structures;
+
+import org.example.CkQST;
+import org.example.models.CkQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryLogTest {
+    @TempDir
+    Path dir;
+
+    private static CkQuery query(int id) {
+        return new CkQuery(id, Arrays.asList("a", "b"), 100, 100, 2, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Operations replayed from the log, as "+id" for a registration and "-id" for a removal.
+     */
+    private static List<String> replay(QueryLog log, long afterLsn) throws IOException {
+        List<String> operations = new ArrayList<>();
+        log.replay(afterLsn, new QueryLog.Visitor() {
+            @Override
+            public void insert(long lsn, CkQuery query) {
+                operations.add("+" + query.id);
+            }
+
+            @Override
+            public void remove(long lsn, int queryId) {
+                operations.add("-" + queryId);
+            }
+        });
+        return operations;
+    }
+
+    @Test
+    void dropsTornTailOnReopen() throws IOException {
+        Path path = dir.resolve("log");
+        try (QueryLog log = new QueryLog(path)) {
+            log.logInsert(query(1));
+            log.logInsert(query(2));
+            log.logRemove(1);
+        }
+        long complete = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.APPEND)) {
+            // Header of a record whose payload never made it to the disk
+            ByteBuffer torn = ByteBuffer.allocate(12);
+            torn.putInt(64).putInt(12345).putInt(7).flip();
+            channel.write(torn);
+        }
+
+        try (QueryLog log = new QueryLog(path)) {
+            assertEquals(complete, Files.size(path));
+            assertEquals(3, log.lastLsn());
+            assertEquals(Arrays.asList("+1", "+2", "-1"), replay(log, 0));
+            assertEquals(4, log.logRemove(2));
+            log.sync();
+            assertEquals(Arrays.asList("+2", "-1", "-2"), replay(log, 1));
+        }
+    }
+
+    @Test
+    void keepsLsnsGrowingAcrossTruncation() throws IOException {
+        Path path = dir.resolve("log");
+        try (QueryLog log = new QueryLog(path)) {
+            log.logInsert(query(1));
+            log.logInsert(query(2));
+            log.truncate(log.lastLsn());
+            assertTrue(replay(log, 0).isEmpty());
+        }
+
+        try (QueryLog log = new QueryLog(path)) {
+            assertEquals(2, log.lastLsn());
+            assertEquals(3, log.logInsert(query(3)));
+            log.truncate(2);
+        }
+        try (QueryLog log = new QueryLog(path)) {
+            assertEquals(3, log.lastLsn());
+            assertEquals(Collections.singletonList("+3"), replay(log, 0));
+        }
+    }
+
+    @Test
+    void recoversCoalescedOperationsAfterSnapshot() throws IOException {
+        Path snapshot = dir.resolve("snapshot");
+        Path path = dir.resolve("log");
+        try (QueryLog log = new QueryLog(path)) {
+            CkQST index = new CkQST(1000, 1000, 9);
+            index.logQueries(log);
+            index.insertQuery(query(1));
+            index.insertQuery(query(2));
+            // Truncates the log up to the snapshot
+            index.snapshot(snapshot);
+            index.removeQuery(query(1));
+            index.insertQuery(query(3));
+            index.removeQuery(query(3));
+            index.insertQuery(query(3));
+            index.insertQuery(query(4));
+            index.removeQuery(query(4));
+        }
+
+        try (QueryLog log = new QueryLog(path)) {
+            assertEquals(8, log.lastLsn());
+            CkQST index = new CkQST(1000, 1000, 9);
+            List<CkQuery> live = index.recover(snapshot, log);
+
+            Set<Integer> ids = new TreeSet<>();
+            for (CkQuery query : live)
+                ids.add(query.id);
+            assertEquals(new TreeSet<>(Arrays.asList(2, 3)), ids);
+            assertFalse(index.removeQuery(query(1)));
+            assertFalse(index.removeQuery(query(4)));
+            assertTrue(index.removeQuery(query(3)));
+            assertEquals(9, log.lastLsn());
+        }
+    }
+}